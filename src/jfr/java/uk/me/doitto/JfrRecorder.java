@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * @author ian
+ * <p>
+ * Emits each {@link SimulationMetrics} sample as a JFR event. Built only on JDK 11 or later (profile "jfr") and loaded reflectively, so the
+ * rest of the code still runs on Java 7.
+ */
+final class JfrRecorder implements SimulationMetrics.Recorder {
+	
+	@Name("uk.me.doitto.Sample")
+	@Label("Simulation Sample")
+	@Category("Kerr Motion")
+	@Description("State of a KerrMotion simulation, every uk.me.doitto.metrics.interval steps")
+	@StackTrace(false)
+	static final class Sample extends Event {
+		
+		@Label("Integrator Order")
+		int order;
+		
+		@Label("Step Rate")
+		@Description("Mino time steps per second since the previous sample")
+		double stepRate;
+		
+		@Label("Radius")
+		double r;
+		
+		@Label("Error")
+		@Description("Per-step error, dB")
+		double e;
+		
+		@Label("Radial Error")
+		@Description("Radial per-step error, dB")
+		double eR;
+		
+		@Label("Polar Error")
+		@Description("Polar per-step error, dB")
+		double eTh;
+	}
+	
+	@Override
+	public void sample (int order, double stepRate, double r, double e, double eR, double eTh) {
+		Sample event = new Sample();
+		if (event.isEnabled()) {
+			event.order = order;
+			event.stepRate = stepRate;
+			event.r = r;
+			event.e = e;
+			event.eR = eR;
+			event.eTh = eTh;
+			event.commit();
+		}
+	}
+}
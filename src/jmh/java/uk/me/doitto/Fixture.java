@@ -0,0 +1,53 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.sqrt;
+
+/**
+ * @author ian
+ * <p>
+ * Benchmark initial conditions, taken from {@link KerrMotionTest}
+ */
+public enum Fixture {
+	/**
+	 * Teo spherical photon orbit, light3
+	 */
+	PHOTON {
+		@Override
+		KerrMotion create (double duration, int order) {
+			return new KerrMotion(1.0, 1.0, 0.0, 1.0, -2.0, 27.0, 3.0, PI / 2.0, duration, 0.001, order);
+		}
+	},
+	
+	/**
+	 * Stable circular orbit at r = 12 around a Schwarzschild black hole, circleStable
+	 */
+	CIRCULAR {
+		@Override
+		KerrMotion create (double duration, int order) {
+			double r = 12.0;
+			double sqrtR = sqrt(r);
+			double tmp = sqrt(r * r - 3.0 * r);
+			double L = (r * r) / (sqrtR * tmp);
+			double E = (r * r - 2.0 * r) / (r * tmp);
+			return new KerrMotion(1.0, 0.0, 1.0, E, L, 0.0, r, PI / 2.0, duration, 0.001, order);
+		}
+	};
+	
+	abstract KerrMotion create (double duration, int order);
+}
@@ -0,0 +1,80 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import uk.me.doitto.InitialConditions.Spin;
+import uk.me.doitto.InitialConditions.Trajectory;
+
+/**
+ * @author ian
+ * <p>
+ * Newton solution of the spherical orbit conditions in {@link InitialConditions}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InitialConditionsBenchmark {
+	
+	private final double[] radii = new double[20], thetas = new double[20];
+	
+	@Setup
+	public void setUp () {
+		for (int i = 0; i < radii.length; i++) {
+			radii[i] = 4.0 + 0.25 * i;
+			thetas[i] = PI / 2 - 0.05 * i;
+		}
+	}
+	
+	@Benchmark
+	public InitialConditions circular () {
+		InitialConditions ic = new InitialConditions(Trajectory.PARTICLE, 5.9, 5.9, PI / 2, Spin.ZERO, 1.0, Integrator.SV8);
+		ic.solve();
+		return ic;
+	}
+	
+	@Benchmark
+	public InitialConditions spherical () {
+		InitialConditions ic = new InitialConditions(Trajectory.PARTICLE, 4.0, 4.0, PI / 4, Spin.PROGRADE, 1.0, Integrator.SV8);
+		ic.solve();
+		return ic;
+	}
+	
+	/**
+	 * 400 spherical orbits by continuation, compare with 400 x spherical
+	 */
+	@Benchmark
+	public double[] family () {
+		return InitialConditions.sphericalFamily(Trajectory.PARTICLE, Spin.PROGRADE, radii, thetas);
+	}
+}
@@ -0,0 +1,73 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author ian
+ * <p>
+ * {@link KerrBatch} against the same particles run one at a time by {@link KerrMotion}, one Mino time unit (1000 steps) at 8th order
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KerrBatchBenchmark {
+	
+	@Param({ "16", "256" })
+	public int particles;
+	
+	private double radius (int i) {  // bound orbits spread a little in starting radius
+		return 12.0 + 0.5 * i / particles;
+	}
+	
+	@Benchmark
+	public double batch () {
+		KerrBatch batch = new KerrBatch(particles, 1.0, 1.0, 1.0, 1.0, 0.001, 8);
+		for (int i = 0; i < particles; i++) {
+			batch.set(i, 0.96, 1.98, 6.8, radius(i), PI / 2.0);
+		}
+		batch.simulate();
+		return batch.getECum(particles - 1);
+	}
+	
+	@Benchmark
+	public double separate () {
+		double eCum = 0.0;
+		for (int i = 0; i < particles; i++) {
+			KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, radius(i), PI / 2.0, 1.0, 0.001, 8);
+			bh.setSink(NullSink.INSTANCE);
+			eCum += bh.simulate();
+		}
+		return eCum;
+	}
+}
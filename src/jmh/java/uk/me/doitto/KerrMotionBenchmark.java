@@ -0,0 +1,181 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * @author ian
+ * <p>
+ * {@link KerrMotion} hot spots: the intermediate variables alone, and a whole simulate() with each kind of output,
+ * with sin th and cos th either recomputed or rotated, with all fields or only t, r, th and ph, and with the variational equations
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KerrMotionBenchmark {
+	
+	/**
+	 * Trajectory output for simulate(): none, the original printf, or the allocation-free writer; text goes nowhere
+	 */
+	@Param({ "NONE", "JSON", "FAST" })
+	public String output;
+	
+	@Param({ "PHOTON", "CIRCULAR" })
+	public Fixture fixture;
+	
+	private static final int PROJECTION = KerrMotion.fields("t,r,th,ph");
+	
+	private KerrMotion bh;
+	
+	private TrajectorySink sink, projectedSink;
+	
+	@Setup
+	public void setUp () {
+		bh = fixture.create(1.0, 8);
+		bh.initialise();
+		sink = sink(TrajectorySink.ALL);
+		projectedSink = sink(PROJECTION);
+	}
+	
+	private TrajectorySink sink (int fields) {
+		if ("JSON".equals(output)) {
+			JsonSink json = new JsonSink(new PrintStream(new OutputStream() {
+				@Override
+				public void write (int b) {
+				}
+				
+				@Override
+				public void write (byte[] b, int off, int len) {
+				}
+			}));
+			json.setFields(fields);
+			return json;
+		} else if ("FAST".equals(output)) {
+			FastJsonSink fast = new FastJsonSink(new WritableByteChannel() {
+				@Override
+				public boolean isOpen () {
+					return true;
+				}
+				
+				@Override
+				public void close () {
+				}
+				
+				@Override
+				public int write (ByteBuffer src) {
+					int n = src.remaining();
+					src.position(src.limit());
+					return n;
+				}
+			});
+			fast.setFields(fields);
+			return fast;
+		} else {
+			return NullSink.INSTANCE;
+		}
+	}
+	
+	@Benchmark
+	public KerrMotion updateIntermediates () {
+		bh.updateIntermediates();
+		return bh;
+	}
+	
+	/**
+	 * One Mino time unit, 1000 steps, at 8th order
+	 */
+	@Benchmark
+	public double simulate () {
+		KerrMotion run = fixture.create(1.0, 8);
+		run.setSink(sink);
+		return run.simulate();
+	}
+	
+	/**
+	 * As simulate(), in rotation mode
+	 */
+	@Benchmark
+	public double simulateRotation () {
+		KerrMotion run = fixture.create(1.0, 8);
+		run.setSink(sink);
+		run.setRotation(true);
+		return run.simulate();
+	}
+	
+	/**
+	 * As simulate(), in rotation mode with the 10th order integrator, where drifts are most frequent
+	 */
+	@Benchmark
+	public double simulateRotation10 () {
+		KerrMotion run = fixture.create(1.0, 10);
+		run.setSink(sink);
+		run.setRotation(true);
+		return run.simulate();
+	}
+	
+	/**
+	 * As simulate(), with the 10th order integrator
+	 */
+	@Benchmark
+	public double simulate10 () {
+		KerrMotion run = fixture.create(1.0, 10);
+		run.setSink(sink);
+		return run.simulate();
+	}
+	
+	/**
+	 * As simulate(), emitting only t, r, th and ph
+	 */
+	@Benchmark
+	public double simulateProjected () {
+		KerrMotion run = fixture.create(1.0, 8);
+		run.setSink(projectedSink);
+		run.setFields(PROJECTION);
+		return run.simulate();
+	}
+	
+	/**
+	 * As simulate(), with the variational equations integrated alongside and rescaled every 100 steps
+	 */
+	@Benchmark
+	public double simulateVariational () {
+		KerrMotion run = fixture.create(1.0, 8);
+		run.setSink(sink);
+		run.setVariational(100);
+		run.simulate();
+		return run.getLogGrowth();
+	}
+}
@@ -0,0 +1,215 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author ian
+ * <p>
+ * Moves trajectory output onto its own thread, so that the integration does not wait for slow formatting, pipes or disks.
+ * <p>
+ * The integrating thread copies each record into a preallocated single-producer, single-consumer ring of primitive records and carries on;
+ * a writer thread drains the ring in batches into the downstream sink. There are no locks: each side only writes its own sequence number,
+ * which the other reads. When the ring is full the producer either waits for space, or drops the record so that the output is decimated for
+ * as long as the consumer lags behind; either way the event is counted.
+ */
+public final class AsyncSink implements TrajectorySink, Flushable {
+	
+	/**
+	 * What the producer does when the ring is full
+	 */
+	public enum Backpressure {
+		BLOCK, DROP;
+	}
+	
+	private static final long PARK_NANOS = 50000L;
+	
+	private static final int PUBLISH_BATCH = 256;  // records the writer consumes between releasing space
+	
+	private final TrajectorySink downstream;
+	
+	private final Backpressure backpressure;
+	
+	private final double[] ring;
+	
+	private final int mask;
+	
+	private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();  // records published, records consumed
+	
+	private long cachedTail;  // producer's last view of tail
+	
+	private long stalls, stallNanos, dropped;
+	
+	private volatile boolean closing;
+	
+	private volatile Throwable failure;
+	
+	private final Thread writer;
+	
+	/**
+	 * Start the writer thread
+	 * @param downstream the sink that formats and writes, used only by the writer thread until this sink is closed, which closes it too
+	 * @param capacity the number of records in the ring, rounded up to a power of two
+	 * @param backpressure what to do when the ring is full
+	 */
+	public AsyncSink (TrajectorySink downstream, int capacity, Backpressure backpressure) {
+		this.downstream = downstream;
+		this.backpressure = backpressure;
+		int size = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+		ring = new double[size * FIELDS];
+		mask = size - 1;
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run () {
+				drain();
+			}
+		}, "AsyncSink");
+		writer.setDaemon(true);
+		writer.start();
+	}
+	
+	@Override
+	public void write (double[] record) {
+		long h = head.get();
+		if (h - cachedTail > mask) {
+			cachedTail = tail.get();
+			if (h - cachedTail > mask) {
+				stalls++;
+				if (backpressure == Backpressure.DROP) {
+					dropped++;
+					return;
+				}
+				long start = System.nanoTime();
+				do {
+					checkFailure();
+					LockSupport.parkNanos(PARK_NANOS);
+					cachedTail = tail.get();
+				} while (h - cachedTail > mask);
+				stallNanos += System.nanoTime() - start;
+			}
+		}
+		System.arraycopy(record, 0, ring, (int)(h & mask) * FIELDS, FIELDS);
+		head.lazySet(h + 1);  // ordered after the copy
+	}
+	
+	/**
+	 * The writer thread: copy out each published record and pass it on, releasing the space every few records
+	 */
+	private void drain () {
+		double[] record = new double[FIELDS];
+		long t = tail.get();
+		try {
+			while (true) {
+				long h = head.get();
+				if (h == t) {
+					if (closing && head.get() == t) {
+						return;
+					}
+					LockSupport.parkNanos(PARK_NANOS);
+					continue;
+				}
+				while (t < h) {
+					System.arraycopy(ring, (int)(t & mask) * FIELDS, record, 0, FIELDS);
+					downstream.write(record);
+					t++;
+					if ((t & (PUBLISH_BATCH - 1)) == 0) {
+						tail.lazySet(t);
+					}
+				}
+				tail.set(t);
+			}
+		} catch (Throwable e) {
+			failure = e;
+		}
+	}
+	
+	private void checkFailure () {
+		if (failure != null) {
+			throw new RuntimeException("trajectory writer failed", failure);
+		}
+	}
+	
+	/**
+	 * Wait until the writer has passed on every record so far, then flush the downstream sink if it can be flushed
+	 */
+	@Override
+	public void flush () throws IOException {
+		long h = head.get();
+		while (tail.get() < h) {
+			checkFailure();
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		if (downstream instanceof Flushable) {  // the writer is idle until the next record is published
+			((Flushable)downstream).flush();
+		}
+	}
+	
+	/**
+	 * Write out everything still in the ring, stop the writer thread and close the downstream sink, even if the writer failed
+	 */
+	@Override
+	public void close () {
+		closing = true;
+		boolean interrupted = false;
+		while (writer.isAlive()) {  // the writer must be finished with the downstream sink before it is closed
+			try {
+				writer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			checkFailure();
+		} finally {
+			downstream.close();
+		}
+	}
+	
+	/**
+	 * @return the number of records that found the ring full, read only from the integrating thread
+	 */
+	public long getStalls () {
+		return stalls;
+	}
+	
+	/**
+	 * @return the time spent waiting for space, with BLOCK backpressure
+	 */
+	public long getStallNanos () {
+		return stallNanos;
+	}
+	
+	/**
+	 * @return the number of records dropped, with DROP backpressure
+	 */
+	public long getDropped () {
+		return dropped;
+	}
+	
+	/**
+	 * @return the number of records passed to the ring, including dropped ones
+	 */
+	public long getRecords () {
+		return head.get() + dropped;
+	}
+}
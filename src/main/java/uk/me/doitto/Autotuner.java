@@ -0,0 +1,373 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.ceil;
+import static java.lang.Math.exp;
+import static java.lang.Math.floor;
+import static java.lang.Math.log;
+import static java.lang.Math.log10;
+import static java.lang.Math.pow;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import org.json.simple.JSONObject;
+
+/**
+ * @author ian
+ * <p>
+ * Work-precision tuning: runs short probe integrations with every integrator over a ladder of step sizes below the one in the parameters, fits log(error) against log(step) for each,
+ * and picks the (integrator, step) pair that meets an error budget with the fewest coordinate and momentum updates over the full run.
+ * <p>
+ * Choices can be cached in a properties file keyed by spin, particle mass, orbit class and the decade of the run time, so that later sweeps over similar
+ * orbits skip the probes. The file is replaced atomically, so concurrent tuners never see it half written.
+ */
+public final class Autotuner {
+	
+	/**
+	 * What the target limits
+	 */
+	public enum Budget {
+		/**
+		 * the cumulative error eCum at the end of the run, as returned by {@link KerrMotion#simulate()}
+		 */
+		CUMULATIVE,
+		/**
+		 * the largest per-step error e over the run, in dB as written to the trajectory
+		 */
+		PEAK;
+	}
+	
+	/**
+	 * Coarse classification of initial conditions, orbits in the same class tend to need the same step
+	 */
+	public enum OrbitClass {
+		LIGHT, BOUND, UNBOUND;
+		
+		static OrbitClass of (double mu, double E) {
+			return mu == 0.0 ? LIGHT : (E < mu ? BOUND : UNBOUND);
+		}
+	}
+	
+	/**
+	 * The outcome of tuning
+	 */
+	public static final class Choice {
+		
+		final Integrator integrator;
+		
+		final double step;
+		
+		/**
+		 * predicted error, in the units of the budget
+		 */
+		final double error;
+		
+		/**
+		 * predicted coordinate and momentum updates for the full run
+		 */
+		final long cost;
+		
+		Choice (Integrator integrator, double step, double error, long cost) {
+			this.integrator = integrator;
+			this.step = step;
+			this.error = error;
+			this.cost = cost;
+		}
+		
+		@Override
+		public String toString () {
+			return integrator + " " + step + " " + error + " " + cost;
+		}
+		
+		static Choice parse (String s) {
+			String[] fields = s.trim().split(" ");
+			return new Choice(Integrator.valueOf(fields[0]), Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Long.parseLong(fields[3]));
+		}
+	}
+	
+	/**
+	 * The probe ladder runs from 2^(RUNGS - 1) times the step in the parameters down to that step, halving each time
+	 */
+	private static final int RUNGS = 5;
+	
+	/**
+	 * A halving of the step that reduces the error by less than this is taken to be limited by rounding
+	 */
+	private static final double MINIMUM_REDUCTION = 2.0;
+	
+	/**
+	 * Steps are chosen to meet this fraction of the target, the extrapolation from short probes is only good to a factor of about two
+	 */
+	private static final double MARGIN = 0.5;
+	
+	private final Budget budget;
+	
+	private final double target, probeFraction;
+	
+	private final File cacheFile;
+	
+	private int probes;
+	
+	/**
+	 * @param budget what the target limits
+	 * @param target the largest acceptable eCum, or the largest acceptable per-step e in dB
+	 * @param probeFraction the length of each probe as a fraction of the full run, the error is extrapolated to the full run if less than one
+	 * @param cacheFile properties file holding earlier choices, created on first use, or null for no caching
+	 */
+	public Autotuner (Budget budget, double target, double probeFraction, File cacheFile) {
+		this.budget = budget;
+		this.target = budget == Budget.PEAK ? pow(10.0, 0.1 * target) : target;
+		this.probeFraction = probeFraction;
+		this.cacheFile = cacheFile;
+	}
+	
+	/**
+	 * @return the number of probe integrations run so far, zero when every choice came from the cache
+	 */
+	public int getProbes () {
+		return probes;
+	}
+	
+	/**
+	 * Largest per-step error seen, as a linear value
+	 */
+	private static final class PeakSink implements TrajectorySink {
+		
+		double peak;
+		
+		@Override
+		public void write (double[] record) {
+			if (record[E] > peak) {
+				peak = record[E];
+			}
+		}
+		
+		@Override
+		public void close () {
+		}
+	}
+	
+	/**
+	 * Run one probe
+	 * @param p the parameters in KerrMotion constructor order
+	 * @return eCum for CUMULATIVE, or the largest per-step error as a linear value for PEAK
+	 */
+	private double probe (double[] p, Integrator integrator, double step, double duration) {
+		KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], duration, step, integrator);
+		PeakSink sink = new PeakSink();
+		sink.peak = -Double.MAX_VALUE;
+		bh.setSink(sink);
+		double eCum = bh.simulate();
+		probes++;
+		return budget == Budget.PEAK ? pow(10.0, 0.1 * sink.peak) : eCum;
+	}
+	
+	/**
+	 * The cumulative error grows faster than linearly in Mino time when the orbit passes close to the hole, so the growth exponent over the probe is
+	 * measured at the coarsest rung and used to extrapolate to the full run. The per-step peak is not extrapolated.
+	 * @param p the parameters in KerrMotion constructor order
+	 * @return the factor by which a probe error is multiplied to predict the error of the full run
+	 */
+	private double growth (double[] p, Integrator integrator, double step, double error) {
+		if (budget == Budget.PEAK || probeFraction >= 1.0) {
+			return 1.0;
+		}
+		double half = probe(p, integrator, step, 0.5 * probeFraction * p[8]);
+		double exponent = half > 0.0 ? log(error / half) / log(2.0) : 1.0;
+		return pow(1.0 / probeFraction, exponent > 1.0 ? exponent : 1.0);
+	}
+	
+	/**
+	 * Probe one integrator and solve its fitted error model for the budget
+	 * @param p the parameters in KerrMotion constructor order
+	 * @return the cheapest step meeting the budget, or null if none was found within the probed range
+	 */
+	Choice tune (double[] p, Integrator integrator) {
+		double[] logH = new double[RUNGS], logError = new double[RUNGS];
+		double step = p[9] * (1 << (RUNGS - 1)), duration = probeFraction < 1.0 ? probeFraction * p[8] : p[8], growth = 1.0, previous = 0.0;
+		int n = 0;
+		for (int i = 0; i < RUNGS; i++, step *= 0.5) {
+			double error = probe(p, integrator, step, duration);
+			if (! (error > 0.0) || Double.isInfinite(error) || Double.isNaN(error)) {
+				break;
+			}
+			if (n == 0) {
+				growth = growth(p, integrator, step, error);
+			} else if (error > previous / MINIMUM_REDUCTION) {  // no longer converging, rounding has taken over
+				break;
+			}
+			previous = error;
+			logH[n] = log(step);
+			logError[n] = log(error * growth);
+			n++;
+		}
+		if (n == 0) {
+			return null;
+		}
+		double h, predicted;
+		if (n == 1) {  // nothing to fit, accept the single step only if it already meets the budget
+			h = exp(logH[0]);
+			predicted = exp(logError[0]);
+			if (predicted > MARGIN * target) {
+				return null;
+			}
+		} else {
+			double meanX = 0.0, meanY = 0.0;
+			for (int i = 0; i < n; i++) {
+				meanX += logH[i] / n;
+				meanY += logError[i] / n;
+			}
+			double sxx = 0.0, sxy = 0.0;
+			for (int i = 0; i < n; i++) {
+				sxx += (logH[i] - meanX) * (logH[i] - meanX);
+				sxy += (logH[i] - meanX) * (logError[i] - meanY);
+			}
+			double slope = sxy / sxx;
+			if (slope <= 0.0) {
+				return null;
+			}
+			double logStep = meanX + (log(MARGIN * target) - meanY) / slope;
+			if (logStep < logH[n - 1]) {  // finer than the converging range
+				return null;
+			}
+			h = roundDown(exp(logStep < logH[0] ? logStep : logH[0]));
+			predicted = exp(meanY + slope * (log(h) - meanX));
+		}
+		long steps = (long)ceil(p[8] / h);
+		return new Choice(integrator, h, budget == Budget.PEAK ? 10.0 * log10(predicted) : predicted, steps * (integrator.getForceEvaluations() + integrator.getDrifts()));
+	}
+	
+	/**
+	 * @return the value rounded down to two significant figures
+	 */
+	private static double roundDown (double h) {
+		double scale = pow(10.0, floor(log10(h)) - 1.0);
+		return floor(h / scale) * scale;
+	}
+	
+	/**
+	 * Probe every integrator
+	 * @param p the parameters in KerrMotion constructor order
+	 * @return the cheapest choice meeting the budget, or null if no integrator can
+	 */
+	Choice tune (double[] p) {
+		Choice best = null;
+		for (Integrator integrator : Integrator.values()) {
+			Choice choice = tune(p, integrator);
+			if (choice != null && (best == null || choice.cost < best.cost)) {
+				best = choice;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @param p the parameters in KerrMotion constructor order
+	 * @return the cache key for these parameters and this budget
+	 */
+	String key (double[] p) {  // cumulative error grows with the length of the run, so only runs of similar length share a choice
+		return "a=" + p[1] + ",mu=" + p[2] + ",class=" + OrbitClass.of(p[2], p[3]) + ",time=1e" + (int)floor(log10(p[8])) + "," + budget + "=" + target;
+	}
+	
+	private void load (Properties cache) throws IOException {
+		if (cacheFile.exists()) {
+			Reader reader = new FileReader(cacheFile);
+			try {
+				cache.load(reader);
+			} finally {
+				reader.close();
+			}
+		}
+	}
+	
+	/**
+	 * Tune a set of initial conditions, consulting and updating the cache
+	 * @param ic the parameter object, as read from the JSON parameter file
+	 * @return the cheapest choice meeting the budget, or null if no integrator can
+	 * @throws IOException
+	 */
+	public Choice tune (JSONObject ic) throws IOException {
+		double[] p = KerrMotion.parameters(ic);
+		Properties cache = new Properties();
+		if (cacheFile != null) {
+			load(cache);
+		}
+		String key = key(p);
+		String cached = cache.getProperty(key);
+		if (cached != null) {
+			return Choice.parse(cached);
+		}
+		Choice choice = tune(p);
+		if (choice != null && cacheFile != null) {
+			load(cache);  // keep what other tuners have added since
+			cache.setProperty(key, choice.toString());
+			File temporary = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+			try {
+				Writer writer = new FileWriter(temporary);
+				try {
+					cache.store(writer, "Autotuner choices: integrator step predicted-error cost");
+				} finally {
+					writer.close();
+				}
+				Files.move(temporary.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporary.delete();
+			}
+		}
+		return choice;
+	}
+	
+	/**
+	 * Tune a parameter file and print it to stdout with the chosen "integrator" and "step", ready to pipe into KerrMotion
+	 * 
+	 * @param args[0] the path to the parameter file, or "-" to read from stdin
+	 * @param args[1] "eCum" to limit the cumulative error, or "dB" to limit the per-step error
+	 * @param args[2] the target
+	 * @param args[3] optional cache file
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void main (String[] args) throws IOException {
+		if (args.length < 3) {
+			System.err.println("Usage: Autotuner <ic.json | -> <eCum | dB> <target> [cacheFile]");
+			System.exit(1);
+		}
+		Reader reader = "-".equals(args[0]) ? new InputStreamReader(System.in) : new FileReader(new File(args[0]));
+		JSONObject ic = KerrMotion.readJson(reader);
+		Budget budget = "dB".equalsIgnoreCase(args[1]) ? Budget.PEAK : Budget.CUMULATIVE;
+		Autotuner autotuner = new Autotuner(budget, Double.parseDouble(args[2]), 0.25, args.length > 3 ? new File(args[3]) : null);
+		Choice choice = autotuner.tune(ic);
+		if (choice == null) {
+			System.err.println("No integrator meets the budget within the probed step range");
+			System.exit(2);
+		}
+		System.err.println("Chose " + choice.integrator + " step " + choice.step + ", predicted error " + choice.error + ", cost " + choice.cost + " after " + autotuner.getProbes() + " probes");
+		ic.put("integrator", choice.integrator.toString());
+		ic.put("integratorOrder", Long.valueOf(choice.integrator.getOrder()));
+		ic.put("step", choice.step);
+		System.out.println(ic.toJSONString());
+	}
+}
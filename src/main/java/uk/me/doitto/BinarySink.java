@@ -0,0 +1,175 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * @author ian
+ * <p>
+ * Writes the trajectory as fixed-width little-endian binary through a memory-mapped file.
+ * <p>
+ * Layout, all values little-endian:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  int    HEADER_SIZE, offset of the first record
+ *  12  int    number of fields per record, TrajectorySink.FIELDS
+ *  16  long   number of records, updated as they are written
+ *  24  double M, a, mu, E, Lz, C, r, theta, time, step
+ * 104  int    integrator order
+ * 108  zero padding
+ * 128  records, each FIELDS doubles in TrajectorySink order
+ * </pre>
+ * so that a reader can map the records directly, e.g. in numpy as
+ * <code>memmap(path, dtype=[(k, '&lt;f8') for k in KEYS], offset=128, shape=(records,))</code>.
+ */
+public final class BinarySink implements TrajectorySink, Flushable {
+	
+	public static final int MAGIC = 0x44344842;  // "BH4D"
+	
+	public static final int VERSION = 1;
+	
+	public static final int HEADER_SIZE = 128;
+	
+	public static final int RECORD_SIZE = FIELDS * 8;
+	
+	static final int COUNT_OFFSET = 16, PARAMETERS_OFFSET = 24, ORDER_OFFSET = 104;
+	
+	private static final int CHUNK_RECORDS = 1 << 15;
+	
+	private final RandomAccessFile file;
+	
+	private final FileChannel channel;
+	
+	private final MappedByteBuffer header;
+	
+	private MappedByteBuffer chunk;
+	
+	private long records;
+	
+	/**
+	 * Create (or overwrite) a trajectory file and write its header
+	 * @param path the file to write
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step
+	 * @param order the integrator order
+	 * @throws IOException
+	 */
+	public BinarySink (File path, double[] parameters, int order) throws IOException {
+		if (parameters.length != 10) {
+			throw new IllegalArgumentException("expected 10 parameters, got " + parameters.length);
+		}
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		channel = file.getChannel();
+		header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(0, MAGIC);
+		header.putInt(4, VERSION);
+		header.putInt(8, HEADER_SIZE);
+		header.putInt(12, FIELDS);
+		header.putLong(COUNT_OFFSET, 0L);
+		for (int i = 0; i < parameters.length; i++) {
+			header.putDouble(PARAMETERS_OFFSET + 8 * i, parameters[i]);
+		}
+		header.putInt(ORDER_OFFSET, order);
+	}
+	
+	/**
+	 * Continue an existing trajectory file, as when resuming from a {@link Checkpoint}
+	 * @param path the file written by an earlier run
+	 * @param records the number of records to keep, anything after them is discarded
+	 * @throws IOException if the file is not a trajectory or holds fewer records than requested
+	 */
+	public BinarySink (File path, long records) throws IOException {
+		file = new RandomAccessFile(path, "rw");
+		channel = file.getChannel();
+		if (channel.size() < HEADER_SIZE + records * RECORD_SIZE) {
+			file.close();
+			throw new IOException(path + " is too short for " + records + " records");
+		}
+		header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+		header.order(ByteOrder.LITTLE_ENDIAN);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getLong(COUNT_OFFSET) < records) {
+			file.close();
+			throw new IOException(path + " is not a trajectory with at least " + records + " records");
+		}
+		channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+		header.putLong(COUNT_OFFSET, records);
+		this.records = records;
+	}
+	
+	private void nextChunk () {
+		try {
+			chunk = channel.map(MapMode.READ_WRITE, HEADER_SIZE + records * RECORD_SIZE, (long)CHUNK_RECORDS * RECORD_SIZE);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		chunk.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	@Override
+	public void write (double[] record) {
+		if (chunk == null || ! chunk.hasRemaining()) {
+			nextChunk();
+		}
+		for (int i = 0; i < FIELDS; i++) {
+			chunk.putDouble(record[i]);
+		}
+		header.putLong(COUNT_OFFSET, ++records);
+	}
+	
+	/**
+	 * Write the mapped records and header through to the file
+	 */
+	@Override
+	public void flush () {
+		if (chunk != null) {
+			chunk.force();
+		}
+		header.force();
+	}
+	
+	/**
+	 * Trim the pre-allocated space from the end of the file and close it
+	 */
+	@Override
+	public void close () {
+		try {
+			chunk = null;
+			header.force();
+			channel.truncate(HEADER_SIZE + records * RECORD_SIZE);
+			channel.force(true);
+			file.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * @return the number of records written so far
+	 */
+	public long size () {
+		return records;
+	}
+}
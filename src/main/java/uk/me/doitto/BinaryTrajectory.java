@@ -0,0 +1,175 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static uk.me.doitto.BinarySink.COUNT_OFFSET;
+import static uk.me.doitto.BinarySink.HEADER_SIZE;
+import static uk.me.doitto.BinarySink.MAGIC;
+import static uk.me.doitto.BinarySink.ORDER_OFFSET;
+import static uk.me.doitto.BinarySink.PARAMETERS_OFFSET;
+import static uk.me.doitto.BinarySink.RECORD_SIZE;
+import static uk.me.doitto.BinarySink.VERSION;
+import static uk.me.doitto.TrajectorySink.FIELDS;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * @author ian
+ * <p>
+ * Read-only, memory-mapped view of a trajectory written by {@link BinarySink}. The records are mapped in chunks of whole records, so files are not
+ * limited to the 2GB of a single mapping.
+ */
+public final class BinaryTrajectory {
+	
+	private final double[] parameters = new double[10];
+	
+	private final int order;
+	
+	private final long size;
+	
+	/**
+	 * Records per mapped chunk, 136MB
+	 */
+	private static final int CHUNK_RECORDS = 1 << 20;
+	
+	private final int chunkRecords;
+	
+	private final DoubleBuffer[] chunks;
+	
+	/**
+	 * Map a trajectory file
+	 * @param path the file to read
+	 * @throws IOException if the file is not a trajectory in a supported format
+	 */
+	public BinaryTrajectory (File path) throws IOException {
+		this(path, CHUNK_RECORDS);
+	}
+	
+	/**
+	 * @param chunkRecords records per mapping
+	 */
+	BinaryTrajectory (File path, int chunkRecords) throws IOException {
+		this.chunkRecords = chunkRecords;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(path + ": too short for a trajectory header");
+			}
+			MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != FIELDS) {
+				throw new IOException(path + ": not a version " + VERSION + " trajectory file");
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] = header.getDouble(PARAMETERS_OFFSET + 8 * i);
+			}
+			order = header.getInt(ORDER_OFFSET);
+			size = Math.min(header.getLong(COUNT_OFFSET), (channel.size() - HEADER_SIZE) / RECORD_SIZE);
+			long count = (size + chunkRecords - 1) / chunkRecords;
+			if (count > Integer.MAX_VALUE) {
+				throw new IOException(path + ": " + size + " records is too many to map");
+			}
+			chunks = new DoubleBuffer[(int)count];
+			for (int i = 0; i < chunks.length; i++) {
+				long first = (long)i * chunkRecords;
+				long length = Math.min(chunkRecords, size - first) * RECORD_SIZE;
+				chunks[i] = channel.map(MapMode.READ_ONLY, HEADER_SIZE + first * RECORD_SIZE, length).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+			}
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * @return M, a, mu, E, Lz, C, r, theta, time, step
+	 */
+	public double[] getParameters () {
+		return parameters.clone();
+	}
+	
+	public int getOrder () {
+		return order;
+	}
+	
+	/**
+	 * @return the number of records
+	 */
+	public long size () {
+		return size;
+	}
+	
+	/**
+	 * @param index the record number
+	 * @param field one of the TrajectorySink field constants
+	 * @return the stored value
+	 */
+	public double get (long index, int field) {
+		return chunks[(int)(index / chunkRecords)].get((int)(index % chunkRecords) * FIELDS + field);
+	}
+	
+	/**
+	 * @param index the record number
+	 * @param record receives the FIELDS values of the record
+	 */
+	public void get (long index, double[] record) {
+		DoubleBuffer chunk = chunks[(int)(index / chunkRecords)];
+		int offset = (int)(index % chunkRecords) * FIELDS;
+		for (int i = 0; i < FIELDS; i++) {
+			record[i] = chunk.get(offset + i);
+		}
+	}
+	
+	/**
+	 * Replay every record, in order, into a sink
+	 * @param sink the receiver, not closed
+	 */
+	public void replay (TrajectorySink sink) {
+		double[] record = new double[FIELDS];
+		for (long i = 0; i < size; i++) {
+			get(i, record);
+			sink.write(record);
+		}
+	}
+	
+	/**
+	 * Convert a binary trajectory back to the JSON lines text format
+	 * 
+	 * @param args[0] the binary file
+	 * @param args[1] optional text file to write, otherwise stdout
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: BinaryTrajectory <trajectory.bin> [trajectory.json]");
+			System.exit(1);
+		}
+		PrintStream output = args.length > 1 ? new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(args[1])), 1 << 16)) : System.out;
+		JsonSink sink = new JsonSink(output);
+		new BinaryTrajectory(new File(args[0])).replay(sink);
+		sink.close();
+	}
+}
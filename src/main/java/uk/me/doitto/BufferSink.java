@@ -0,0 +1,104 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.util.Arrays;
+
+/**
+ * @author ian
+ * <p>
+ * Keeps the whole trajectory in memory as a single growable primitive array, one record after another
+ */
+public final class BufferSink implements TrajectorySink {
+	
+	private double[] data;
+	
+	private int size;
+	
+	/**
+	 * @param capacity the number of records to allocate space for up front
+	 */
+	public BufferSink (int capacity) {
+		data = new double[Math.max(capacity, 1) * FIELDS];
+	}
+	
+	public BufferSink () {
+		this(1024);
+	}
+	
+	@Override
+	public void write (double[] record) {
+		int offset = size * FIELDS;
+		if (offset + FIELDS > data.length) {
+			data = Arrays.copyOf(data, 2 * data.length);
+		}
+		System.arraycopy(record, 0, data, offset, FIELDS);
+		size++;
+	}
+	
+	@Override
+	public void close () {
+	}
+	
+	/**
+	 * @return the number of records held
+	 */
+	public int size () {
+		return size;
+	}
+	
+	/**
+	 * @param index the record number
+	 * @param field one of the TrajectorySink field constants
+	 * @return the stored value
+	 */
+	public double get (int index, int field) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("record " + index + " of " + size);
+		}
+		return data[index * FIELDS + field];
+	}
+	
+	/**
+	 * @param index the record number
+	 * @param record receives the FIELDS values of the record
+	 */
+	public void get (int index, double[] record) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("record " + index + " of " + size);
+		}
+		System.arraycopy(data, index * FIELDS, record, 0, FIELDS);
+	}
+	
+	/**
+	 * @param field one of the TrajectorySink field constants
+	 * @return a copy of that field for every record
+	 */
+	public double[] column (int field) {
+		double[] column = new double[size];
+		for (int i = 0; i < size; i++) {
+			column[i] = data[i * FIELDS + field];
+		}
+		return column;
+	}
+	
+	/**
+	 * Forget the stored records, keeping the allocated space
+	 */
+	public void clear () {
+		size = 0;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.simple.JSONObject;
+
+import uk.me.doitto.KerrMotion.Termination;
+
+/**
+ * @author ian
+ * <p>
+ * Maps the fate of trajectories over two of the initial condition parameters, refining a quadtree only where neighbouring samples disagree.
+ * <p>
+ * Samples sit on the corners of a lattice of BASE x BASE cells, each of which may be split up to DEPTH times. A cell whose four corners share an outcome
+ * is a leaf; otherwise it is split into four and its new corners are sampled, so the work goes into the class boundaries. Corners are shared between
+ * neighbouring cells and each is integrated once. Features smaller than a base cell that touch none of its corners can be missed, as with any
+ * sampling, so the base lattice should resolve the coarse structure.
+ * <p>
+ * Each sample is a full {@link KerrMotion} run, stopped early as soon as its outcome is known.
+ */
+public final class CaptureMap {
+	
+	/**
+	 * The fate of one set of initial conditions
+	 */
+	public enum Outcome {
+		FORBIDDEN,   // a potential is negative at the start, so there is no motion there
+		CAPTURED,    // crossed the horizon
+		ESCAPED,     // moving outwards beyond the escape radius
+		BOUND,       // passed the given number of radial turning points without escaping
+		UNRESOLVED;  // none of the above within the time limit
+	}
+	
+	/**
+	 * A leaf of the quadtree
+	 */
+	public static final class Cell {
+		
+		final double x, y, width, height;
+		
+		final Outcome outcome;
+		
+		Cell (double x, double y, double width, double height, Outcome outcome) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.outcome = outcome;
+		}
+		
+		/**
+		 * @return the shared outcome of the corners, or null if they still disagree at the finest level
+		 */
+		public Outcome getOutcome () {
+			return outcome;
+		}
+		
+		/**
+		 * @return a single line JSON representation, the outcome is "MIXED" if the corners disagree
+		 */
+		public String toJson () {
+			return "{\"x\":" + x + ", \"y\":" + y + ", \"width\":" + width + ", \"height\":" + height + ", \"outcome\":\"" + (outcome != null ? outcome : "MIXED") + "\"}";
+		}
+	}
+	
+	/**
+	 * Parameter names, in the order of KerrMotion.parameters()
+	 */
+	public static final List<String> PARAMETERS = Collections.unmodifiableList(Arrays.asList("M", "a", "mu", "E", "Lz", "C", "r", "theta", "time", "step"));
+	
+	private final double[] parameters;
+	
+	private final Integrator integrator;
+	
+	private final int xIndex, yIndex, base, depth, lattice, turningPoints;
+	
+	private final double xMin, xMax, yMin, yMax, escape;
+	
+	private final ConcurrentHashMap<Long, FutureTask<Outcome>> samples = new ConcurrentHashMap<Long, FutureTask<Outcome>>();
+	
+	private final AtomicLong steps = new AtomicLong();
+	
+	/**
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step; the time is the limit for each sample
+	 * @param integrator the integrator for every sample
+	 * @param xIndex the parameter varied across the map, as an index into PARAMETERS
+	 * @param yIndex the parameter varied up the map
+	 * @param base the number of cells along each side before refinement
+	 * @param depth the maximum number of times a cell is split
+	 * @param escape the radius beyond which an outgoing trajectory has escaped
+	 * @param turningPoints the number of radial turning points after which a trajectory is bound
+	 */
+	public CaptureMap (double[] parameters, Integrator integrator, int xIndex, double xMin, double xMax, int yIndex, double yMin, double yMax,
+			int base, int depth, double escape, int turningPoints) {
+		this.parameters = parameters.clone();
+		this.integrator = integrator;
+		this.xIndex = xIndex;
+		this.xMin = xMin;
+		this.xMax = xMax;
+		this.yIndex = yIndex;
+		this.yMin = yMin;
+		this.yMax = yMax;
+		this.base = base;
+		this.depth = depth;
+		this.lattice = base << depth;
+		this.escape = escape;
+		this.turningPoints = turningPoints;
+	}
+	
+	/**
+	 * Stops a run as soon as it has escaped or proved itself bound
+	 */
+	private static final class Watcher implements TrajectorySink {
+		
+		private final KerrMotion bh;
+		
+		private final double escape;
+		
+		private final int limit;
+		
+		private double sign;
+		
+		private int turns;
+		
+		boolean escaped, bound;
+		
+		Watcher (KerrMotion bh, double escape, int limit) {
+			this.bh = bh;
+			this.escape = escape;
+			this.limit = limit;
+		}
+		
+		@Override
+		public void write (double[] record) {
+			double rDot = record[RDOT];
+			if (rDot > 0.0 && record[R] > escape) {
+				escaped = true;
+				bh.cancel();
+			} else if (rDot != 0.0) {
+				double s = Math.signum(rDot);
+				if (sign != 0.0 && s != sign && ++turns >= limit) {
+					bound = true;
+					bh.cancel();
+				}
+				sign = s;
+			}
+		}
+		
+		@Override
+		public void close () {
+		}
+	}
+	
+	/**
+	 * Integrate one set of initial conditions until its outcome is known
+	 * @param x the value of the parameter varied across the map
+	 * @param y the value of the parameter varied up the map
+	 * @return the outcome
+	 */
+	public Outcome classify (double x, double y) {
+		double[] p = parameters.clone();
+		p[xIndex] = x;
+		p[yIndex] = y;
+		KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], integrator);
+		if (! bh.allowed()) {
+			return Outcome.FORBIDDEN;
+		}
+		Watcher watcher = new Watcher(bh, escape, turningPoints);
+		bh.setSink(watcher);
+		bh.simulate();
+		steps.addAndGet(bh.getSteps());
+		if (watcher.escaped) {
+			return Outcome.ESCAPED;
+		} else if (watcher.bound) {
+			return Outcome.BOUND;
+		}
+		return bh.getTermination() == Termination.HORIZON ? Outcome.CAPTURED : Outcome.UNRESOLVED;
+	}
+	
+	private double x (int i) {
+		return xMin + (xMax - xMin) * i / lattice;
+	}
+	
+	private double y (int j) {
+		return yMin + (yMax - yMin) * j / lattice;
+	}
+	
+	/**
+	 * The outcome at a lattice point, integrating it only if no other cell has
+	 */
+	private Outcome sample (final int i, final int j) {
+		Long key = (long)i * (lattice + 1) + j;
+		FutureTask<Outcome> task = samples.get(key);
+		if (task == null) {
+			FutureTask<Outcome> created = new FutureTask<Outcome>(new Callable<Outcome>() {
+				@Override
+				public Outcome call () {
+					return classify(x(i), y(j));
+				}
+			});
+			task = samples.putIfAbsent(key, created);
+			if (task == null) {
+				task = created;
+				task.run();
+			}
+		}
+		try {
+			if (! task.isDone()) {  // another worker is integrating it, let the pool make up for this thread while it waits
+				ForkJoinPool.managedBlock(new Wait(task));
+			}
+			return task.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Waits for a sample being integrated by another worker
+	 */
+	private static final class Wait implements ForkJoinPool.ManagedBlocker {
+		
+		private final FutureTask<Outcome> task;
+		
+		Wait (FutureTask<Outcome> task) {
+			this.task = task;
+		}
+		
+		@Override
+		public boolean block () throws InterruptedException {
+			try {
+				task.get();
+			} catch (ExecutionException e) {
+				// reported by sample()
+			}
+			return true;
+		}
+		
+		@Override
+		public boolean isReleasable () {
+			return task.isDone();
+		}
+	}
+	
+	/**
+	 * Refines one cell, in lattice units, into leaves
+	 */
+	private final class Refine extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int i, j, size;
+		
+		private final Queue<Cell> leaves;
+		
+		Refine (int i, int j, int size, Queue<Cell> leaves) {
+			this.i = i;
+			this.j = j;
+			this.size = size;
+			this.leaves = leaves;
+		}
+		
+		@Override
+		protected void compute () {
+			Outcome corner = sample(i, j);
+			boolean uniform = corner == sample(i + size, j) && corner == sample(i, j + size) && corner == sample(i + size, j + size);
+			if (uniform || size == 1) {
+				leaves.add(new Cell(x(i), y(j), x(i + size) - x(i), y(j + size) - y(j), uniform ? corner : null));
+			} else {
+				int half = size >>> 1;
+				invokeAll(new Refine(i, j, half, leaves), new Refine(i + half, j, half, leaves), new Refine(i, j + half, half, leaves), new Refine(i + half, j + half, half, leaves));
+			}
+		}
+	}
+	
+	/**
+	 * Build the map
+	 * @param pool the pool to run on, its parallelism sets the number of cores used
+	 * @return the leaves, ordered by y then x
+	 */
+	public List<Cell> map (ForkJoinPool pool) {
+		Queue<Cell> leaves = new ConcurrentLinkedQueue<Cell>();
+		final List<Refine> roots = new ArrayList<Refine>();
+		int size = 1 << depth;
+		for (int j = 0; j < lattice; j += size) {
+			for (int i = 0; i < lattice; i += size) {
+				roots.add(new Refine(i, j, size, leaves));
+			}
+		}
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected void compute () {
+				invokeAll(roots);
+			}
+		});
+		List<Cell> sorted = new ArrayList<Cell>(leaves);
+		Collections.sort(sorted, new Comparator<Cell>() {
+			@Override
+			public int compare (Cell a, Cell b) {
+				return a.y != b.y ? Double.compare(a.y, b.y) : Double.compare(a.x, b.x);
+			}
+		});
+		return sorted;
+	}
+	
+	/**
+	 * @return the number of distinct initial conditions classified so far
+	 */
+	public int getSamples () {
+		return samples.size();
+	}
+	
+	/**
+	 * @return the number a uniform grid at the finest resolution would need
+	 */
+	public long getUniformSamples () {
+		return (long)(lattice + 1) * (lattice + 1);
+	}
+	
+	/**
+	 * @return the Mino time steps taken by every sample so far
+	 */
+	public long getSteps () {
+		return steps.get();
+	}
+	
+	/**
+	 * Map the outcomes over two parameters of a set of initial conditions, print one JSON line per leaf cell to stdout and statistics to stderr
+	 * 
+	 * @param args[0] the path to the parameter file, or "-" to read from stdin
+	 * @param args[1 - 3] the parameter across the map, see PARAMETERS, and its range
+	 * @param args[4 - 6] the parameter up the map, and its range; then options, each followed by its value:
+	 * <pre>
+	 * -base &lt;n&gt;        cells along each side before refinement, default 8
+	 * -depth &lt;n&gt;       maximum refinements of a cell, default 5
+	 * -escape &lt;r&gt;      escape radius, default 100
+	 * -turns &lt;n&gt;       radial turning points before a trajectory is bound, default 6
+	 * -threads &lt;n&gt;     default the number of processors
+	 * </pre>
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 7) {
+			System.err.println("Usage: CaptureMap <ic.json | -> <x> <xMin> <xMax> <y> <yMin> <yMax> [-base n] [-depth n] [-escape r] [-turns n] [-threads n]");
+			System.exit(1);
+		}
+		int base = 8, depth = 5, turns = 6, threads = Runtime.getRuntime().availableProcessors();
+		double escape = 100.0;
+		for (int i = 7; i + 1 < args.length; i += 2) {
+			if ("-base".equals(args[i])) {
+				base = Integer.parseInt(args[i + 1]);
+			} else if ("-depth".equals(args[i])) {
+				depth = Integer.parseInt(args[i + 1]);
+			} else if ("-escape".equals(args[i])) {
+				escape = Double.parseDouble(args[i + 1]);
+			} else if ("-turns".equals(args[i])) {
+				turns = Integer.parseInt(args[i + 1]);
+			} else if ("-threads".equals(args[i])) {
+				threads = Integer.parseInt(args[i + 1]);
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		int xIndex = PARAMETERS.indexOf(args[1]), yIndex = PARAMETERS.indexOf(args[4]);
+		if (xIndex < 0 || yIndex < 0 || xIndex == yIndex) {
+			throw new IllegalArgumentException("Map parameters must be two different ones of " + PARAMETERS);
+		}
+		Reader reader = "-".equals(args[0]) ? new InputStreamReader(System.in) : new FileReader(new File(args[0]));
+		JSONObject ic = KerrMotion.readJson(reader);
+		CaptureMap map = new CaptureMap(KerrMotion.parameters(ic), KerrMotion.integrator(ic), xIndex, Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+				yIndex, Double.parseDouble(args[5]), Double.parseDouble(args[6]), base, depth, escape, turns);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		List<Cell> cells;
+		try {
+			cells = map.map(pool);
+		} finally {
+			pool.shutdown();
+		}
+		PrintStream output = new PrintStream(new BufferedOutputStream(System.out, 1 << 16));
+		for (Cell cell : cells) {
+			output.println(cell.toJson());
+		}
+		output.flush();
+		System.err.println(cells.size() + " cells from " + map.getSamples() + " trajectories (" + map.getUniformSamples() + " for a uniform grid), "
+				+ map.getSteps() + " steps in " + (System.nanoTime() - start) * 1.0e-9 + " s");
+	}
+}
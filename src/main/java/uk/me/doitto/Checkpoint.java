@@ -0,0 +1,157 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * @author ian
+ * <p>
+ * Periodic snapshots of the complete state of a {@link KerrMotion} integration, from which it can be resumed bit-identically.
+ * <p>
+ * Each snapshot is written to a temporary file in the same directory, synced, then renamed over the previous one, so a job killed at any point
+ * leaves either the old or the new snapshot intact. Layout, big-endian:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  double M, a, mu, E, Lz, C, r, theta, time, step
+ *  88  utf    integrator name
+ *      long   steps taken, which is also the number of records written
+ *      double mino, tau, t, r, theta, phi, tDot, rDot, thetaDot, phiDot, eCum
+ * </pre>
+ * The intermediate variables depend only on r and theta and are recomputed on resume.
+ */
+public final class Checkpoint {
+	
+	public static final int MAGIC = 0x4b434b50;  // "KCKP"
+	
+	public static final int VERSION = 1;
+	
+	private static final int CLOCK_MASK = 1023;  // read the clock only every 1024 steps
+	
+	private final File file, temporary;
+	
+	private final double[] parameters;
+	
+	private final Integrator integrator;
+	
+	private final long everySteps, everyNanos;
+	
+	private final double[] state = new double[KerrMotion.STATE_SIZE];
+	
+	private long lastSteps, lastNanos = System.nanoTime();
+	
+	/**
+	 * @param file where to keep the snapshot
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step, recorded so that a snapshot cannot be resumed with different initial conditions
+	 * @param integrator the integrator, recorded for the same reason
+	 * @param everySteps take a snapshot after this many steps, or 0 for no step limit
+	 * @param everySeconds take a snapshot after this much wall time, or 0 for no time limit
+	 */
+	public Checkpoint (File file, double[] parameters, Integrator integrator, long everySteps, double everySeconds) {
+		this.file = file;
+		this.temporary = new File(file.getPath() + ".tmp");
+		this.parameters = parameters.clone();
+		this.integrator = integrator;
+		this.everySteps = everySteps;
+		this.everyNanos = (long)(everySeconds * 1.0e9);
+	}
+	
+	/**
+	 * Cheap enough to call every step
+	 * @param steps steps taken so far
+	 * @return whether a snapshot should be taken now
+	 */
+	boolean due (long steps) {
+		if (everySteps > 0 && steps - lastSteps >= everySteps) {
+			return true;
+		}
+		return everyNanos > 0 && (steps & CLOCK_MASK) == 0 && steps != lastSteps && System.nanoTime() - lastNanos >= everyNanos;
+	}
+	
+	/**
+	 * Atomically replace the snapshot with the current state
+	 * @param bh the integration, between steps
+	 * @throws IOException
+	 */
+	void save (KerrMotion bh) throws IOException {
+		long steps = bh.getState(state);
+		FileOutputStream stream = new FileOutputStream(temporary);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream));
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			for (double p : parameters) {
+				output.writeDouble(p);
+			}
+			output.writeUTF(integrator.name());
+			output.writeLong(steps);
+			for (double s : state) {
+				output.writeDouble(s);
+			}
+			output.flush();
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		lastSteps = steps;
+		lastNanos = System.nanoTime();
+	}
+	
+	/**
+	 * Load the snapshot into a freshly constructed integration, so that its next simulate() carries on from where the snapshot was taken
+	 * @param bh the integration, constructed with the same parameters and integrator as the one that was saved
+	 * @return the number of steps already taken, and records already written
+	 * @throws IOException if there is no valid snapshot, or it was taken with different parameters
+	 */
+	public long restore (KerrMotion bh) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException(file + " is not a checkpoint");
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				double p = input.readDouble();
+				if (Double.doubleToLongBits(p) != Double.doubleToLongBits(parameters[i])) {
+					throw new IOException(file + " was written with " + p + " for parameter " + i + ", not " + parameters[i]);
+				}
+			}
+			String name = input.readUTF();
+			if (! integrator.name().equals(name)) {
+				throw new IOException(file + " was written with integrator " + name + ", not " + integrator);
+			}
+			long steps = input.readLong();
+			for (int i = 0; i < state.length; i++) {
+				state[i] = input.readDouble();
+			}
+			bh.setState(state, steps);
+			lastSteps = steps;
+			return steps;
+		} finally {
+			input.close();
+		}
+	}
+}
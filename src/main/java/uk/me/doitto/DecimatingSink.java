@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+/**
+ * @author ian
+ * <p>
+ * Passes only the first of every N records on to another sink
+ */
+public final class DecimatingSink implements TrajectorySink {
+	
+	private final TrajectorySink downstream;
+	
+	private final int interval;
+	
+	private int count;
+	
+	/**
+	 * @param downstream the sink to receive the surviving records
+	 * @param interval keep one record in this many
+	 */
+	public DecimatingSink (TrajectorySink downstream, int interval) {
+		if (interval < 1) {
+			throw new IllegalArgumentException("interval must be positive: " + interval);
+		}
+		this.downstream = downstream;
+		this.interval = interval;
+	}
+	
+	@Override
+	public void write (double[] record) {
+		if (count == 0) {
+			downstream.write(record);
+		}
+		if (++count == interval) {
+			count = 0;
+		}
+	}
+	
+	@Override
+	public void close () {
+		downstream.close();
+	}
+}
@@ -0,0 +1,231 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * @author ian
+ * <p>
+ * Runs a batch of independent trajectories in parallel on a work-stealing pool
+ */
+public final class Ensemble {
+	
+	private final List<JSONObject> ics;
+	
+	private final File outputDirectory;
+	
+	private ResultCache cache;
+	
+	/**
+	 * @param ics initial conditions, one object per trajectory in the same format as the KerrMotion parameter file
+	 * @param outputDirectory where to write each trajectory as &lt;index&gt;.json, or null to discard trajectory output
+	 */
+	public Ensemble (List<JSONObject> ics, File outputDirectory) {
+		this.ics = ics;
+		this.outputDirectory = outputDirectory;
+	}
+	
+	/**
+	 * @param cache consulted before, and updated after, each trajectory is integrated; null (the default) for no cache
+	 */
+	public void setCache (ResultCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Integrate a single member of the ensemble
+	 * @param index position of the initial conditions in the batch
+	 * @return the outcome
+	 * @throws IOException
+	 */
+	Summary run (int index) throws IOException {
+		JSONObject ic = ics.get(index);
+		KerrMotion bh = KerrMotion.fromJson(ic);
+		TrajectorySink sink;
+		if (outputDirectory != null) {
+			JsonSink json = new JsonSink(new PrintStream(new BufferedOutputStream(new FileOutputStream(new File(outputDirectory, index + ".json")), 1 << 16)));
+			json.setFields(bh.getFields());
+			sink = json;
+		} else {
+			sink = NullSink.INSTANCE;
+		}
+		String key = null;
+		File trajectory = null;
+		double eCum;
+		try {
+			try {
+				if (cache != null) {
+					bh.setFields(TrajectorySink.ALL);  // the cached trajectory must serve any later selection
+					key = ResultCache.key(KerrMotion.parameters(ic), KerrMotion.integrator(ic));
+					ResultCache.Entry entry = cache.get(key, outputDirectory != null);
+					if (entry != null) {
+						if (entry.getTrajectory() != null) {
+							entry.getTrajectory().replay(sink);
+						}
+						return new Summary(index, entry.getECum(), entry.getSteps(), entry.getTermination());
+					}
+					if (outputDirectory != null) {
+						trajectory = cache.temporaryFile();
+						sink = new TeeSink(sink, new BinarySink(trajectory, KerrMotion.parameters(ic), KerrMotion.integrator(ic).getOrder()));
+					}
+				}
+				bh.setSink(sink);
+				eCum = bh.simulate();
+			} finally {
+				sink.close();
+			}
+			if (cache != null) {
+				cache.put(key, bh, eCum, trajectory);
+			}
+		} finally {
+			if (trajectory != null) {  // already moved into the cache unless the run failed
+				trajectory.delete();
+			}
+		}
+		return new Summary(index, bh, eCum);
+	}
+	
+	/**
+	 * Integrate every member of the ensemble
+	 * @param pool the pool to run on, its parallelism sets the number of cores used
+	 * @return the outcomes, in the same order as the initial conditions
+	 */
+	public Summary[] run (ForkJoinPool pool) {
+		Summary[] summaries = new Summary[ics.size()];
+		pool.invoke(new Batch(summaries, 0, summaries.length));
+		return summaries;
+	}
+	
+	/**
+	 * Recursively halves the index range so idle workers can steal the larger pieces
+	 */
+	private final class Batch extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Summary[] summaries;
+		
+		private final int from, to;
+		
+		Batch (Summary[] summaries, int from, int to) {
+			this.summaries = summaries;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute () {
+			if (to - from == 1) {
+				try {
+					summaries[from] = run(from);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			} else if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Batch(summaries, from, middle), new Batch(summaries, middle, to));
+			}
+		}
+	}
+	
+	/**
+	 * Read newline-delimited JSON, one parameter object per non-blank line
+	 * @param reader the source of the text, closed on return
+	 * @return the parsed objects in order
+	 * @throws IOException
+	 * @throws IllegalArgumentException naming the line number, if a line is not a JSON object
+	 */
+	public static List<JSONObject> readNdjson (Reader reader) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(reader);
+		List<JSONObject> ics = new ArrayList<JSONObject>();
+		JSONParser parser = new JSONParser();
+		try {
+			String line = bufferedReader.readLine();
+			for (int number = 1; line != null; number++) {
+				if (line.trim().length() > 0) {
+					Object value;
+					try {
+						value = parser.parse(line);
+					} catch (ParseException e) {
+						throw new IllegalArgumentException("line " + number + ": " + e, e);
+					}
+					if (! (value instanceof JSONObject)) {
+						throw new IllegalArgumentException("line " + number + ": not a JSON object: " + line);
+					}
+					ics.add((JSONObject)value);
+				}
+				line = bufferedReader.readLine();
+			}
+		} finally {
+			bufferedReader.close();
+		}
+		return ics;
+	}
+	
+	/**
+	 * Run a batch of initial conditions and print one summary line per trajectory to stdout
+	 * 
+	 * @param args[0] the path to the NDJSON file, or "-" to read from stdin
+	 * @param args[1] optional output directory for the trajectories, otherwise or if "-" they are discarded
+	 * @param args[2] optional number of worker threads, defaults to the number of processors
+	 * @param args[3] optional {@link ResultCache} directory, limited to 1024 MB
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: Ensemble <ics.ndjson | -> [outputDirectory | -] [threads] [cacheDirectory]");
+			System.exit(1);
+		}
+		Reader reader = "-".equals(args[0]) ? new InputStreamReader(System.in) : new FileReader(new File(args[0]));
+		File outputDirectory = null;
+		if (args.length > 1 && ! "-".equals(args[1])) {
+			outputDirectory = new File(args[1]);
+			if (! outputDirectory.isDirectory() && ! outputDirectory.mkdirs()) {
+				throw new IOException("Cannot create " + outputDirectory);
+			}
+		}
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			Ensemble ensemble = new Ensemble(readNdjson(reader), outputDirectory);
+			if (args.length > 3) {
+				ensemble.setCache(new ResultCache(new File(args[3]), 1024L << 20));
+			}
+			for (Summary summary : ensemble.run(pool)) {
+				System.out.println(summary.toJson());
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,344 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Formatter;
+
+/**
+ * @author ian
+ * <p>
+ * Writes exactly the same text as {@link JsonSink}, but formats the numbers directly into a reusable byte buffer which is written to a channel in
+ * large blocks, so that the steady-state output loop allocates nothing.
+ * <p>
+ * java.util.Formatter rounds half-up on the shortest decimal representation of a double. Here the value is scaled by exact powers of ten and
+ * rounded directly, which gives the same digits unless the scaled value lies within a few ulps of a rounding tie; those rare cases, and anything
+ * non-finite or subnormal, are handed to a (reused) Formatter so that the output still matches to the byte.
+ */
+public final class FastJsonSink implements TrajectorySink, Flushable {
+	
+	private static final double[] POW10 = { 1.0e0, 1.0e1, 1.0e2, 1.0e3, 1.0e4, 1.0e5, 1.0e6, 1.0e7, 1.0e8, 1.0e9, 1.0e10, 1.0e11,
+		1.0e12, 1.0e13, 1.0e14, 1.0e15, 1.0e16, 1.0e17, 1.0e18, 1.0e19, 1.0e20, 1.0e21, 1.0e22 };
+	
+	private static final double LOG10_2 = 0.30102999566398120;
+	
+	private static final int DIGITS = 10;  // significant digits in %.9e
+	
+	private static final double SCIENTIFIC_MIN = 1.0e9, SCIENTIFIC_MAX = 1.0e10;
+	
+	private static final double FIXED_MAX = 1.0e15;  // %.1f fast path limit, well inside 2^53 after scaling
+	
+	private static final double TIE_ULPS = 2.0e-6;  // bound on |scaled - exact| per rounding, in units of the last kept digit, for scaled values below 2^34
+	
+	private static final boolean[] DECIBEL = new boolean[FIELDS];
+	
+	static {
+		DECIBEL[E] = DECIBEL[ER] = DECIBEL[ETH] = DECIBEL[EC] = true;
+	}
+	
+	private static final byte[] SUFFIX = ascii("}" + System.lineSeparator());
+	
+	private static final int MAX_RECORD = 1024;  // comfortably more than the longest possible line
+	
+	private final WritableByteChannel channel;
+	
+	private final boolean closeChannel;
+	
+	private final byte[] bytes;
+	
+	private final ByteBuffer buffer;
+	
+	private final byte[] digits = new byte[20];
+	
+	private final StringBuilder slow = new StringBuilder(32);
+	
+	private final Formatter formatter = new Formatter(slow);
+	
+	private int position;
+	
+	private int[] selection;
+	
+	private byte[][] prefixes;
+	
+	/**
+	 * @param channel where to write the text
+	 * @param bufferSize bytes to accumulate between writes
+	 * @param closeChannel whether close() should also close the channel
+	 */
+	public FastJsonSink (WritableByteChannel channel, int bufferSize, boolean closeChannel) {
+		this.channel = channel;
+		this.closeChannel = closeChannel;
+		bytes = new byte[Math.max(bufferSize, 2 * MAX_RECORD)];
+		buffer = ByteBuffer.wrap(bytes);
+		setFields(ALL);
+	}
+	
+	public FastJsonSink (WritableByteChannel channel) {
+		this(channel, 1 << 16, true);
+	}
+	
+	/**
+	 * @return a sink writing to the process's standard output, bypassing System.out
+	 */
+	public static FastJsonSink stdout () {
+		return new FastJsonSink(new FileOutputStream(FileDescriptor.out).getChannel(), 1 << 16, false);
+	}
+	
+	/**
+	 * Continue an existing trajectory file, as when resuming from a {@link Checkpoint}
+	 * @param path the file written by an earlier run
+	 * @param records the number of lines to keep, anything after them is discarded
+	 * @return a sink appending to the kept lines
+	 * @throws IOException if the file holds fewer lines than requested
+	 */
+	public static FastJsonSink append (File path, long records) throws IOException {
+		FileChannel channel = new RandomAccessFile(path, "rw").getChannel();
+		ByteBuffer block = ByteBuffer.allocate(1 << 16);
+		long offset = 0, lines = 0;
+		while (lines < records) {
+			block.clear();
+			int n = channel.read(block, offset);
+			if (n < 0) {
+				channel.close();
+				throw new IOException(path + " has " + lines + " records, expected " + records);
+			}
+			int i = 0;
+			while (i < n && lines < records) {
+				if (block.get(i++) == '\n') {
+					lines++;
+				}
+			}
+			offset += i;
+		}
+		channel.truncate(offset);
+		channel.position(offset);
+		return new FastJsonSink(channel);
+	}
+	
+	/**
+	 * Write only some of the fields, in their usual order
+	 * @param fields bit i set to keep field i, see KerrMotion.setFields()
+	 * @throws IllegalArgumentException if no field is selected
+	 */
+	public void setFields (int fields) {
+		KerrMotion.checkFields(fields);
+		selection = new int[Integer.bitCount(fields)];
+		prefixes = new byte[selection.length][];
+		for (int i = 0, n = 0; i < FIELDS; i++) {
+			if ((fields & (1 << i)) != 0) {
+				prefixes[n] = ascii((n == 0 ? "{\"" : ", \"") + KEYS[i] + "\":");
+				selection[n++] = i;
+			}
+		}
+	}
+	
+	private static byte[] ascii (String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = (byte)s.charAt(i);
+		}
+		return b;
+	}
+	
+	@Override
+	public void write (double[] record) {
+		if (bytes.length - position < MAX_RECORD) {
+			flush();
+		}
+		for (int n = 0; n < selection.length; n++) {
+			int i = selection[n];
+			put(prefixes[n]);
+			if (DECIBEL[i]) {
+				fixed(record[i]);
+			} else {
+				scientific(record[i]);
+			}
+		}
+		put(SUFFIX);
+	}
+	
+	/**
+	 * Write out any buffered text
+	 */
+	@Override
+	public void flush () {
+		buffer.clear();
+		buffer.limit(position);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		position = 0;
+	}
+	
+	@Override
+	public void close () {
+		flush();
+		if (closeChannel) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+	
+	private void put (byte[] b) {
+		System.arraycopy(b, 0, bytes, position, b.length);
+		position += b.length;
+	}
+	
+	private void put (char c) {
+		bytes[position++] = (byte)c;
+	}
+	
+	/**
+	 * Write the decimal digits of a non-negative value, most significant first
+	 * @param value what to write
+	 * @param width minimum number of digits, zero padded
+	 */
+	private void putDigits (long value, int width) {
+		int n = 0;
+		do {
+			digits[n++] = (byte)('0' + value % 10);
+			value /= 10;
+		} while (value != 0 || n < width);
+		while (n > 0) {
+			bytes[position++] = digits[--n];
+		}
+	}
+	
+	private void slow (String format, double x) {
+		slow.setLength(0);
+		formatter.format(format, x);
+		for (int i = 0; i < slow.length(); i++) {
+			bytes[position++] = (byte)slow.charAt(i);
+		}
+	}
+	
+	/**
+	 * Scale by a power of ten using exact powers only, counting the roundings incurred
+	 */
+	private static double scale (double v, int k) {
+		while (k > 22) {
+			v *= POW10[22];
+			k -= 22;
+		}
+		while (k < -22) {
+			v /= POW10[22];
+			k += 22;
+		}
+		return k >= 0 ? v * POW10[k] : v / POW10[-k];
+	}
+	
+	private static int roundings (int k) {
+		return 1 + (Math.abs(k) - 1) / 22;
+	}
+	
+	/**
+	 * %.9e
+	 */
+	void scientific (double x) {
+		if (x == 0.0) {
+			if (Double.doubleToRawLongBits(x) != 0L) {
+				put('-');
+			}
+			put('0');
+			put('.');
+			putDigits(0L, DIGITS - 1);
+			put('e');
+			put('+');
+			putDigits(0L, 2);
+			return;
+		}
+		double v = Math.abs(x);
+		if (! (v >= Double.MIN_NORMAL && v <= Double.MAX_VALUE)) {
+			slow("%.9e", x);
+			return;
+		}
+		int exponent = (int)Math.floor(Math.getExponent(v) * LOG10_2);
+		double m = scale(v, DIGITS - 1 - exponent);
+		if (m >= SCIENTIFIC_MAX) {
+			exponent++;
+			m = scale(v, DIGITS - 1 - exponent);
+		} else if (m < SCIENTIFIC_MIN) {
+			exponent--;
+			m = scale(v, DIGITS - 1 - exponent);
+		}
+		long q = (long)m;
+		double fraction = m - q;
+		double tolerance = (roundings(DIGITS - 1 - exponent) + 2) * TIE_ULPS;
+		if (Math.abs(fraction - 0.5) <= tolerance) {
+			slow("%.9e", x);
+			return;
+		}
+		if (fraction > 0.5) {
+			q++;
+			if (q == (long)SCIENTIFIC_MAX) {
+				q = (long)SCIENTIFIC_MIN;
+				exponent++;
+			}
+		}
+		if (x < 0.0) {
+			put('-');
+		}
+		long leading = q / (long)SCIENTIFIC_MIN;
+		bytes[position++] = (byte)('0' + leading);
+		put('.');
+		putDigits(q - leading * (long)SCIENTIFIC_MIN, DIGITS - 1);
+		put('e');
+		put(exponent < 0 ? '-' : '+');
+		putDigits(Math.abs(exponent), 2);
+	}
+	
+	/**
+	 * %.1f
+	 */
+	void fixed (double x) {
+		double v = Math.abs(x);
+		if (! (v < FIXED_MAX) || (v != 0.0 && v < Double.MIN_NORMAL)) {
+			slow("%.1f", x);
+			return;
+		}
+		double m = v * 10.0;
+		long q = (long)m;
+		double fraction = m - q;
+		if (Math.abs(fraction - 0.5) <= 4.0 * Math.ulp(m)) {
+			slow("%.1f", x);
+			return;
+		}
+		if (fraction > 0.5) {
+			q++;
+		}
+		if (x < 0.0 || Double.doubleToRawLongBits(x) == Long.MIN_VALUE) {
+			put('-');
+		}
+		putDigits(q / 10, 1);
+		put('.');
+		bytes[position++] = (byte)('0' + q % 10);
+	}
+}
@@ -20,37 +20,35 @@ import static java.lang.Math.abs;
 import static java.lang.Math.cos;
 import static java.lang.Math.sin;
 
-import org.apache.commons.math3.linear.Array2DRowRealMatrix;
-import org.apache.commons.math3.linear.ArrayRealVector;
-import org.apache.commons.math3.linear.LUDecomposition;
-import org.apache.commons.math3.linear.RealVector;
-
 /**
  * @author ian
  *
  */
 public class InitialConditions {
 	
-	private enum Trajectory {
+	public enum Trajectory {
 		PARTICLE, LIGHT;
 	}
 	
-	private enum Spin {
+	public enum Spin {
 		RETROGRADE, ZERO, PROGRADE;
 	}
 	
-	private final double M = 1.0, mu, a, r0, r1, th0, factorL, time = 20.0, step = 0.001, tolerance = 1.0e-6;
+	private static final int MAX_ITERATIONS = 50;
+	
+	private final double M = 1.0, mu, a, factorL, time = 20.0, step = 0.001, tolerance = 1.0e-6;
+	
+	private double r0, r1, th0;
 	
 	private double E = 1.0, L = 2.0, Q = 0.0;
 	
+	private final double[] system = new double[12];  // 3x3 Jacobian augmented with the residuals, row-major, reused by every Newton step
+	
 	private int order;
 	
 	public InitialConditions(Trajectory t, double rMin, double rMax, double thetaMin, Spin a, double factorL, Integrator i) {
 		this.mu = (t == Trajectory.PARTICLE) ? 1.0 : 0.0;
-		boolean nonsingular = abs(rMax - rMin) > 2.0 * tolerance;
-		this.r0 = nonsingular ? rMin: rMin - tolerance;
-		this.r1 = nonsingular ? rMax: rMax + tolerance;
-		this.th0 = thetaMin > 0.01 ? thetaMin:  0.01;
+		setTarget(rMin, rMax, thetaMin);
 		switch (a) {
 			case RETROGRADE: this.a = -1.0; break;
 			case ZERO: this.a = 0.0; break;
@@ -68,6 +66,40 @@ public class InitialConditions {
 		}
 	}
 
+	/**
+	 * Move the orbit to be solved for, keeping the current constants of motion as the starting guess for the next solve()
+	 * @param rMin the inner radial turning point
+	 * @param rMax the outer radial turning point, equal to rMin for a spherical orbit
+	 * @param thetaMin the polar turning point
+	 */
+	void setTarget (double rMin, double rMax, double thetaMin) {
+		boolean nonsingular = abs(rMax - rMin) > 2.0 * tolerance;
+		r0 = nonsingular ? rMin: rMin - tolerance;
+		r1 = nonsingular ? rMax: rMax + tolerance;
+		th0 = thetaMin > 0.01 ? thetaMin:  0.01;
+	}
+	
+	/**
+	 * Set the starting guess for the next solve()
+	 */
+	void setConstants (double energy, double angularMomentum, double carter) {
+		E = energy;
+		L = angularMomentum;
+		Q = carter;
+	}
+	
+	double getE () {
+		return E;
+	}
+	
+	double getL () {
+		return L;
+	}
+	
+	double getQ () {
+		return Q;
+	}
+	
 	private double rDot (double r) {
 		return ((r * r + a * a) * E - a * L) * ((r * r + a * a) * E - a * L) - (r * r - 2.0 * M * r + a * a) * (mu * mu * r * r + (L - a * E) * (L - a * E) + Q);
 	}
@@ -76,29 +108,139 @@ public class InitialConditions {
 		return Q - cos(theta) * cos(theta) * (a * a * (mu * mu - E * E) + L * L / (sin(theta) * sin(theta)));
 	}
 	
-	private RealVector qDot () {
-		return new ArrayRealVector(new double[] { rDot(r0), rDot(r1), thDot(th0) }, false);
-	}
-	
-	private Array2DRowRealMatrix jacobian () {
+	/**
+	 * Fill the augmented system with the Jacobian of the potentials with respect to E, L, Q, and the potentials themselves
+	 * @return the squared norm of the potentials
+	 */
+	private double linearise () {
 		double p0 = E * (r0 * r0 + a * a) - a * L;
 		double p1 = E * (r1 * r1 + a * a) - a * L;
 		double delta0 = r0 * r0 - 2.0 * M * r0 + a * a;
 		double delta1 = r1 * r1 - 2.0 * M * r1 + a * a;
 		double l_ae = (L - a * E);
-		return new Array2DRowRealMatrix(new double[][] {
-			{ 2.0 * (r0 * r0 + a * a) * p0 + 2.0 * a * l_ae * delta0, - 2.0 * a * p0 - 2.0 * l_ae * delta0, - delta0 },
-			{ 2.0 * (r1 * r1 + a * a) * p1 + 2.0 * a * l_ae * delta1, - 2.0 * a * p1 - 2.0 * l_ae * delta1, - delta1 }, 
-			{ 2.0 * cos(th0) * cos(th0) * a * a * E, - 2.0 * cos(th0) * cos(th0) * L / (sin(th0) * sin(th0)), 1.0 } }, false);
-	}
-	
-	private void solve () {
-		while (qDot().dotProduct(qDot()) > 1.0e-21) {
-			RealVector correction = new LUDecomposition(jacobian()).getSolver().solve(qDot());
-			E -= correction.getEntry(0);
-			L -= correction.getEntry(1);
-			Q -= correction.getEntry(2);
+		double c2 = cos(th0) * cos(th0), s2 = sin(th0) * sin(th0);
+		double f0 = rDot(r0), f1 = rDot(r1), f2 = thDot(th0);
+		double[] m = system;
+		m[0] = 2.0 * (r0 * r0 + a * a) * p0 + 2.0 * a * l_ae * delta0;
+		m[1] = - 2.0 * a * p0 - 2.0 * l_ae * delta0;
+		m[2] = - delta0;
+		m[3] = f0;
+		m[4] = 2.0 * (r1 * r1 + a * a) * p1 + 2.0 * a * l_ae * delta1;
+		m[5] = - 2.0 * a * p1 - 2.0 * l_ae * delta1;
+		m[6] = - delta1;
+		m[7] = f1;
+		m[8] = 2.0 * c2 * a * a * E;
+		m[9] = - 2.0 * c2 * L / s2;
+		m[10] = 1.0;
+		m[11] = f2;
+		return f0 * f0 + f1 * f1 + f2 * f2;
+	}
+	
+	private static void swapRows (double[] m, int i, int j) {
+		for (int k = 0; k < 4; k++) {
+			double tmp = m[4 * i + k];
+			m[4 * i + k] = m[4 * j + k];
+			m[4 * j + k] = tmp;
+		}
+	}
+	
+	/**
+	 * Gaussian elimination with partial pivoting, in place; the solution is left in the last column
+	 */
+	private static void eliminate (double[] m) {
+		for (int col = 0; col < 3; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < 3; row++) {
+				if (abs(m[4 * row + col]) > abs(m[4 * pivot + col])) {
+					pivot = row;
+				}
+			}
+			if (pivot != col) {
+				swapRows(m, pivot, col);
+			}
+			for (int row = col + 1; row < 3; row++) {
+				double factor = m[4 * row + col] / m[4 * col + col];
+				for (int k = col; k < 4; k++) {
+					m[4 * row + k] -= factor * m[4 * col + k];
+				}
+			}
+		}
+		for (int row = 2; row >= 0; row--) {
+			double sum = m[4 * row + 3];
+			for (int k = row + 1; k < 3; k++) {
+				sum -= m[4 * row + k] * m[4 * k + 3];
+			}
+			m[4 * row + 3] = sum / m[4 * row + row];
+		}
+	}
+	
+	/**
+	 * Newton iteration for E, L, Q from the current values
+	 * @return whether the potentials converged to zero within MAX_ITERATIONS
+	 */
+	boolean solve () {
+		for (int i = 0; i < MAX_ITERATIONS; i++) {
+			if (! (linearise() > 1.0e-21)) {
+				return ! Double.isNaN(E + L + Q);
+			}
+			eliminate(system);
+			E -= system[3];
+			L -= system[7];
+			Q -= system[11];
+		}
+		return false;
+	}
+	
+	/**
+	 * Linear extrapolation from two solutions to the next grid point, allowing for uneven spacing
+	 * @param last the solution at pLast
+	 * @param before the solution at pBefore
+	 * @return the prediction at pNext
+	 */
+	static double secant (double last, double before, double pLast, double pBefore, double pNext) {
+		return last + (last - before) * (pNext - pLast) / (pLast - pBefore);
+	}
+	
+	/**
+	 * Solve a family of spherical orbits by continuation, each solution is the starting guess for its neighbour.
+	 * The grid is traversed back and forth along theta, and within a sweep the next guess is extrapolated linearly from the last two solutions,
+	 * so the thetas need not be evenly spaced, but neighbours should be close enough for Newton to converge from the prediction.
+	 * @param t particle or light
+	 * @param spin the black hole spin
+	 * @param radii orbit radii
+	 * @param thetas polar turning points, monotonic
+	 * @return E, L, Q for each orbit, flattened as [3 * (i * thetas.length + j)] for radii[i] and thetas[j]; NaN where Newton did not converge
+	 */
+	public static double[] sphericalFamily (Trajectory t, Spin spin, double[] radii, double[] thetas) {
+		double[] family = new double[3 * radii.length * thetas.length];
+		InitialConditions ic = new InitialConditions(t, radii[0], radii[0], thetas[0], spin, 1.0, Integrator.SV2);
+		for (int i = 0; i < radii.length; i++) {
+			boolean forward = (i & 1) == 0;
+			for (int n = 0; n < thetas.length; n++) {
+				int j = forward ? n : thetas.length - 1 - n;
+				int at = 3 * (i * thetas.length + j);
+				if (n > 1) {  // secant predictor from the previous two solutions in this sweep
+					int jLast = forward ? j - 1 : j + 1, jBefore = forward ? j - 2 : j + 2;
+					int last = 3 * (i * thetas.length + jLast), before = 3 * (i * thetas.length + jBefore);
+					if (! Double.isNaN(family[last]) && ! Double.isNaN(family[before])) {
+						double pLast = thetas[jLast], pBefore = thetas[jBefore], pNext = thetas[j];
+						ic.setConstants(secant(family[last], family[before], pLast, pBefore, pNext), secant(family[last + 1], family[before + 1], pLast, pBefore, pNext),
+								secant(family[last + 2], family[before + 2], pLast, pBefore, pNext));
+					}
+				}
+				ic.setTarget(radii[i], radii[i], thetas[j]);
+				double E = ic.E, L = ic.L, Q = ic.Q;
+				if (! ic.solve()) {
+					ic.setConstants(E, L, Q);  // leave the last good guess for the neighbour
+					family[at] = family[at + 1] = family[at + 2] = Double.NaN;
+				} else {
+					family[at] = ic.E;
+					family[at + 1] = ic.L;
+					family[at + 2] = ic.Q;
+				}
+			}
 		}
+		return family;
 	}
 	
 	/**
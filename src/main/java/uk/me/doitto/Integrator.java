@@ -26,64 +26,147 @@ public enum Integrator {
 	/**
 	 * Stormer-Verlet 2nd-order
 	 */
-	SV2 (new double[] { 1.0 }),
+	SV2 (2, new double[] { 1.0 }),
 	
 	/**
 	 * Yoshida 4th-order
 	 */
-	SV4 (new double[] { Constants.y, - Constants.y * Constants.CUBE_ROOT_2 }),
+	SV4 (4, new double[] { Constants.y, - Constants.y * Constants.CUBE_ROOT_2 }),
 	
 	/**
 	 * Yoshida 6th-order
 	 */
-	SV6 (new double[] { 0.78451361047755726381949763, 0.23557321335935813368479318, -1.17767998417887100694641568, 1.31518632068391121888424973 }),
+	SV6 (6, new double[] { 0.78451361047755726381949763, 0.23557321335935813368479318, -1.17767998417887100694641568, 1.31518632068391121888424973 }),
 									
 	/**
 	 * Yoshida 8th-order
 	 */
-	SV8 (new double[] { 0.74167036435061295344822780, -0.40910082580003159399730010, 0.19075471029623837995387626, -0.57386247111608226665638773, 0.29906418130365592384446354, 0.33462491824529818378495798, 0.31529309239676659663205666, -0.79688793935291635401978884 }),
+	SV8 (8, new double[] { 0.74167036435061295344822780, -0.40910082580003159399730010, 0.19075471029623837995387626, -0.57386247111608226665638773, 0.29906418130365592384446354, 0.33462491824529818378495798, 0.31529309239676659663205666, -0.79688793935291635401978884 }),
 									
 	/**
 	 * Yoshida 10th-order
 	 */
-	SV10 (new double[] { 0.09040619368607278492161150, 0.53591815953030120213784983, 0.35123257547493978187517736, -0.31116802097815835426086544, -0.52556314194263510431065549, 0.14447909410225247647345695, 0.02983588609748235818064083, 0.17786179923739805133592238, 0.09826906939341637652532377, 0.46179986210411860873242126, -0.33377845599881851314531820, 0.07095684836524793621031152, 0.23666960070126868771909819, -0.49725977950660985445028388, -0.30399616617237257346546356, 0.05246957188100069574521612, 0.44373380805019087955111365 });
+	SV10 (10, new double[] { 0.09040619368607278492161150, 0.53591815953030120213784983, 0.35123257547493978187517736, -0.31116802097815835426086544, -0.52556314194263510431065549, 0.14447909410225247647345695, 0.02983588609748235818064083, 0.17786179923739805133592238, 0.09826906939341637652532377, 0.46179986210411860873242126, -0.33377845599881851314531820, 0.07095684836524793621031152, 0.23666960070126868771909819, -0.49725977950660985445028388, -0.30399616617237257346546356, 0.05246957188100069574521612, 0.44373380805019087955111365 }),
+	
+	/**
+	 * Suzuki fractal 4th-order, five stages
+	 */
+	SUZUKI4 (4, new double[] { Constants.p, Constants.p, 1.0 - 4.0 * Constants.p }),
+	
+	/**
+	 * Kahan-Li 6th-order, nine stages (s9odr6a)
+	 */
+	KL6 (6, new double[] { 0.39216144400731413927925056, 0.33259913678935943859974864, -0.70624617255763935980996482, 0.08221359629355080023149045, 0.79854399093482996339895035 }),
+	
+	/**
+	 * Blanes-Moan optimized 4th-order splitting, six force evaluations (S6)
+	 */
+	BM4 (4, new double[] { 0.0792036964311957, 0.353172906049774, -0.0420650803577195, 1.0 - 2.0 * (0.0792036964311957 + 0.353172906049774 - 0.0420650803577195) },
+			new double[] { 0.209515106613362, -0.143851773179818, 0.5 - (0.209515106613362 - 0.143851773179818) }),
+	
+	/**
+	 * Blanes-Moan optimized 6th-order splitting, ten force evaluations (S10)
+	 */
+	BM6 (6, new double[] { 0.050262764400392, 0.413514300428344, 0.045079889794326, -0.188054853819569, 0.541960678450780,
+				1.0 - 2.0 * (0.050262764400392 + 0.413514300428344 + 0.045079889794326 - 0.188054853819569 + 0.541960678450780) },
+			new double[] { 0.148816447901042, -0.132385865767784, 0.067307604692185, 0.432666402578175,
+				0.5 - (0.148816447901042 - 0.132385865767784 + 0.067307604692185 + 0.432666402578175) });
 
 	private static class Constants {
 		public final static double CUBE_ROOT_2 = pow(2.0, 1.0 / 3.0);		
 		public final static double y = 1.0 / (2.0 - CUBE_ROOT_2);
+		public final static double p = 1.0 / (4.0 - pow(4.0, 1.0 / 3.0));
+	}
+	
+	private final int order;
+	
+	/**
+	 * Flattened schedule: drift[0], kick[0], drift[1], kick[1] ... kick[n - 1], drift[n], where drift[i] is the pair of coefficients halves[2i], halves[2i + 1]
+	 */
+	private final double[] halves, kicks;
+	
+	/**
+	 * Symmetric composition of Stormer-Verlet steps
+	 * @param order order of accuracy
+	 * @param gammas the first half of the composition coefficients, up to and including the middle one
+	 */
+	Integrator (int order, double[] gammas) {
+		this.order = order;
+		int stages = 2 * gammas.length - 1;
+		kicks = new double[stages];
+		for (int i = 0; i < gammas.length; i++) {
+			kicks[i] = kicks[stages - 1 - i] = gammas[i];
+		}
+		halves = new double[2 * (stages + 1)];
+		for (int i = 0; i < stages; i++) {  // the closing half drift of each stage merges with the opening half drift of the next
+			halves[2 * i + 1] = 0.5 * kicks[i];
+			halves[2 * i + 2] = 0.5 * kicks[i];
+		}
 	}
 	
-	protected final double[] gammas;
+	/**
+	 * Symmetric drift-kick splitting
+	 * @param order order of accuracy
+	 * @param a the first half of the drift coefficients, up to and including the middle one
+	 * @param b the first half of the kick coefficients, up to and including the middle one
+	 */
+	Integrator (int order, double[] a, double[] b) {
+		this.order = order;
+		halves = new double[2 * (2 * a.length - 1)];
+		kicks = new double[2 * b.length];
+		for (int i = 0; i < a.length; i++) {
+			halves[2 * i] = halves[halves.length - 2 - 2 * i] = a[i];
+		}
+		for (int i = 0; i < b.length; i++) {
+			kicks[i] = kicks[kicks.length - 1 - i] = b[i];
+		}
+	}
 	
-	protected final int gammaLength;
+	/**
+	 * Look up an integrator by its order
+	 * @param order one of 2, 4, 6, 8, 10
+	 * @return the matching Yoshida integrator, SV2 for unrecognized orders
+	 */
+	static Integrator forOrder (int order) {
+		switch (order) {
+			case 4: return SV4;
+			case 6: return SV6;
+			case 8: return SV8;
+			case 10: return SV10;
+			default: return SV2;
+		}
+	}
 	
-	Integrator (double[] coefficients) {
-		this.gammas = coefficients;
-		this.gammaLength = coefficients.length - 1;
+	/**
+	 * @return the order of accuracy
+	 */
+	public int getOrder () {
+		return order;
 	}
 	
 	/**
-	 * Basic 2nd-order Stormer-Verlet step which is composed into higher order methods
-	 * @param bh the KerrMotion instance
-	 * @param y composition coefficient
+	 * @return momentum updates per step, the dominant cost in most problems
 	 */
-	protected final void sv (KerrMotion bh, double y) {
-		double halfY = 0.5 * y;
-		bh.updateQ(halfY);
-		bh.updateP(y);
-		bh.updateQ(halfY);
+	public int getForceEvaluations () {
+		return kicks.length;
+	}
+	
+	/**
+	 * @return coordinate updates per step, each of which recomputes the intermediate variables
+	 */
+	public int getDrifts () {
+		return kicks.length + 1;
 	}
 	
 	/**
 	 * Perform one iteration step for the configured integrator
-	 * @param bh the KerrMotion object reference, for passing through to the Q & P update methods
+	 * @param bh the system being integrated, for passing through to the Q & P update methods
 	 */
-	void solve (KerrMotion bh) {
-		for (int i = 0; i < gammaLength; i++) {
-			sv(bh, gammas[i]);
-		}
-		for (int i = gammaLength; i >= 0; i--) {
-			sv(bh, gammas[i]);
+	void solve (Symplectic bh) {
+		for (int i = 0; i < kicks.length; i++) {
+			bh.updateQ(halves[2 * i], halves[2 * i + 1]);
+			bh.updateP(kicks[i]);
 		}
+		bh.updateQ(halves[2 * kicks.length], halves[2 * kicks.length + 1]);
 	}
 }
@@ -0,0 +1,91 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.Flushable;
+import java.io.PrintStream;
+
+/**
+ * @author ian
+ * <p>
+ * The original output format, one JSON object per line
+ */
+public final class JsonSink implements TrajectorySink, Flushable {
+	
+	private static final String FORMAT = "{\"mino\":%.9e, \"tau\":%.9e, \"E\":%.1f, \"ER\":%.1f, \"ETh\":%.1f, \"EC\":%.1f, \"t\":%.9e, \"r\":%.9e, \"th\":%.9e, \"ph\":%.9e, \"tDot\":%.9e, \"rDot\":%.9e, \"thDot\":%.9e, \"phDot\":%.9e, \"x\":%.9e, \"y\":%.9e, \"z\":%.9e}%n";
+	
+	private final PrintStream output;
+	
+	private String format;
+	
+	private int[] selection;
+	
+	private Object[] values;
+	
+	public JsonSink (PrintStream output) {
+		this.output = output;
+	}
+	
+	/**
+	 * Write only some of the fields, in their usual order
+	 * @param fields bit i set to keep field i, see KerrMotion.setFields()
+	 * @throws IllegalArgumentException if no field is selected
+	 */
+	public void setFields (int fields) {
+		KerrMotion.checkFields(fields);
+		if (fields == ALL) {
+			format = null;
+			return;
+		}
+		StringBuilder text = new StringBuilder("{");
+		selection = new int[Integer.bitCount(fields)];
+		for (int i = 0, n = 0; i < FIELDS; i++) {
+			if ((fields & (1 << i)) != 0) {
+				text.append(n > 0 ? ", \"" : "\"").append(KEYS[i]).append(i >= E && i <= EC ? "\":%.1f" : "\":%.9e");
+				selection[n++] = i;
+			}
+		}
+		format = text.append("}%n").toString();
+		values = new Object[selection.length];
+	}
+	
+	@Override
+	public void write (double[] record) {
+		if (format != null) {
+			for (int i = 0; i < selection.length; i++) {
+				values[i] = record[selection[i]];
+			}
+			output.printf(format, values);
+			return;
+		}
+		output.printf(FORMAT, record[MINO], record[TAU], record[E], record[ER], record[ETH], record[EC], record[T], record[R], record[TH], record[PH],
+				record[TDOT], record[RDOT], record[THDOT], record[PHDOT], record[X], record[Y], record[Z]);
+	}
+	
+	@Override
+	public void flush () {
+		output.flush();
+	}
+	
+	@Override
+	public void close () {
+		if (output == System.out) {
+			output.flush();
+		} else {
+			output.close();
+		}
+	}
+}
@@ -17,20 +17,21 @@ package uk.me.doitto;
 
 import static java.lang.Math.abs;
 import static java.lang.Math.cos;
+import static java.lang.Math.log;
 import static java.lang.Math.log10;
 import static java.lang.Math.sin;
 import static java.lang.Math.sqrt;
-import static uk.me.doitto.Integrator.SV10;
-import static uk.me.doitto.Integrator.SV2;
-import static uk.me.doitto.Integrator.SV4;
-import static uk.me.doitto.Integrator.SV6;
-import static uk.me.doitto.Integrator.SV8;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
 
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -39,7 +40,14 @@ import org.json.simple.JSONValue;
  * @author ian
  * Particle and photon trajectories in the Kerr spacetime and in Boyer-Lindquist coordinates
  */
-public final class KerrMotion {
+public final class KerrMotion extends Symplectic {
+	
+	/**
+	 * Why a simulation stopped
+	 */
+	public enum Termination {
+		HORIZON, TIME, CANCELLED;
+	}
 	
 	private final double M, a, horizon, mu2, E, E2, L, L2, Q, T, ts, a2, aE, a2E, aL, l_ae2, a2mu2_E2, nf = 1.0e-18; // constants for this spacetime
 	
@@ -47,12 +55,64 @@ public final class KerrMotion {
 	
 	private double mino, tau, t, r, th, ph, tDot, rDot, thDot, phDot, eCum, e, eR, eTh; // coordinates etc.
 	
-	private Integrator integrator = SV2;
+	private final Integrator integrator;
+	
+	private TrajectorySink sink = new JsonSink(System.out);
+	
+	private final double[] record = new double[TrajectorySink.FIELDS];
+	
+	private long steps;
+	
+	private Checkpoint checkpoint;
+	
+	private boolean resumed;
+	
+	private volatile boolean cancelled;
+	
+	private long sampledSteps, sampledNanos;  // for SimulationMetrics
+	
+	private boolean rotation;
+	
+	private int rotations;
+	
+	private int fields = TrajectorySink.ALL;
+	
+	private boolean variational;
+	
+	private double dr, dth, drDot, dthDot, logGrowth, minoStart, tauStart;  // tangent vector, log of its growth before the last rescaling
+	
+	private long renormaliseEvery, sinceRenormalised;
+	
+	/**
+	 * Rotation angles up to this use a series for their sine and cosine, see rotate()
+	 */
+	private static final double SERIES_LIMIT = 0.1;
+	
+	private static final double S3 = -1.0 / 6.0, S5 = 1.0 / 120.0, S7 = -1.0 / 5040.0, S9 = 1.0 / 362880.0;
+	
+	private static final double C2 = -1.0 / 2.0, C4 = 1.0 / 24.0, C6 = -1.0 / 720.0, C8 = 1.0 / 40320.0, C10 = -1.0 / 3628800.0;
+	
+	/**
+	 * Renormalise (sin th, cos th) after this many rotations
+	 */
+	private static final int RENORMALISE = 64;
+	
+	/**
+	 * The number of values in a state snapshot, see getState()
+	 */
+	static final int STATE_SIZE = 11;
 	
 	/**
 	 * Constructor, constants and initial conditions
 	 */
 	public KerrMotion (double bhMass, double spin, double pMass, double energy, double zAngMom, double CC, double r0, double th0, double duration, double timestep, int order) {
+		this(bhMass, spin, pMass, energy, zAngMom, CC, r0, th0, duration, timestep, Integrator.forOrder(order));
+	}
+	
+	/**
+	 * Constructor, constants and initial conditions, with any of the available integrators
+	 */
+	public KerrMotion (double bhMass, double spin, double pMass, double energy, double zAngMom, double CC, double r0, double th0, double duration, double timestep, Integrator integrator) {
 		M = bhMass;
 		a = spin;
 		a2 = a * a;
@@ -72,24 +132,227 @@ public final class KerrMotion {
 		th = th0;
 		T = duration;
 		ts = timestep;
-		switch (order) {
-			case 2: integrator = SV2; break;
-			case 4: integrator = SV4; break;
-			case 6: integrator = SV6; break;
-			case 8: integrator = SV8; break;
-			case 10: integrator = SV10; break;
-		}
+		this.integrator = integrator;
 	}
 
+	/**
+	 * Redirect the trajectory output, by default it goes to stdout as JSON
+	 * @param sink the receiver of one record per step, the caller is responsible for closing it
+	 */
+	public void setSink (TrajectorySink sink) {
+		this.sink = sink;
+	}
+	
+	/**
+	 * Choose how drifts update sin th and cos th: by calling Math.sin and Math.cos of the new th (the default),
+	 * or by rotating the previous pair through the change in th, which needs no transcendental functions for the small angles of a drift.
+	 * The two agree to rounding, but trajectories are not bit-identical.
+	 * @param rotation true for the rotation mode
+	 */
+	public void setRotation (boolean rotation) {
+		this.rotation = rotation;
+	}
+	
+	/**
+	 * Integrate the variational equations alongside the orbit, through the same composition, for the maximal Lyapunov exponent.
+	 * <p>
+	 * A tangent vector (dr, dth, drDot, dthDot) is carried through the linearisation of every drift and kick, with the derivatives of the
+	 * forces taken from the intermediates of the kick itself, so it follows the numerical map exactly rather than approximating the flow. It is
+	 * rescaled to unit length from time to time and the logarithms of the scale factors summed, see getLogGrowth(). Checkpoints do not hold the
+	 * tangent vector, so a resumed run starts a new one.
+	 * @param renormaliseEvery steps between rescalings, 0 for never
+	 */
+	public void setVariational (long renormaliseEvery) {
+		variational = true;
+		this.renormaliseEvery = renormaliseEvery;
+		setTangent(0.5, 0.5, 0.5, 0.5);
+	}
+	
+	/**
+	 * Start the tangent vector in a given direction, the default is equal parts of every component
+	 */
+	public void setTangent (double dr, double dth, double drDot, double dthDot) {
+		this.dr = dr;
+		this.dth = dth;
+		this.drDot = drDot;
+		this.dthDot = dthDot;
+		logGrowth = 0.0;
+		sinceRenormalised = 0;
+		minoStart = mino;
+		tauStart = tau;
+	}
+	
+	/**
+	 * @param tangent filled with the direction of the tangent vector, dr, dth, drDot, dthDot, scaled by exp(-getLogGrowth()) relative to its start
+	 */
+	public void getTangent (double[] tangent) {
+		double norm = sqrt(dr * dr + dth * dth + drDot * drDot + dthDot * dthDot);
+		tangent[0] = dr / norm;
+		tangent[1] = dth / norm;
+		tangent[2] = drDot / norm;
+		tangent[3] = dthDot / norm;
+	}
+	
+	/**
+	 * @return the natural logarithm of the growth of the tangent vector since it was started, independent of the rescaling interval
+	 */
+	public double getLogGrowth () {
+		return logGrowth + log(sqrt(dr * dr + dth * dth + drDot * drDot + dthDot * dthDot));
+	}
+	
+	/**
+	 * @return the running estimate of the maximal Lyapunov exponent, per unit Mino time
+	 */
+	public double getLyapunov () {
+		return getLogGrowth() / (mino - minoStart);
+	}
+	
+	/**
+	 * @return the running estimate of the maximal Lyapunov exponent, per unit proper time
+	 */
+	public double getLyapunovTau () {
+		return getLogGrowth() / (tau - tauStart);
+	}
+	
+	private void renormalise () {
+		double norm = sqrt(dr * dr + dth * dth + drDot * drDot + dthDot * dthDot);
+		logGrowth += log(norm);
+		dr /= norm;
+		dth /= norm;
+		drDot /= norm;
+		dthDot /= norm;
+		sinceRenormalised = 0;
+	}
+	
+	/**
+	 * Take periodic snapshots during simulate(), the sink is flushed first if it is {@link Flushable}
+	 * @param checkpoint the snapshot policy and file, or null for none
+	 */
+	public void setCheckpoint (Checkpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+	
+	/**
+	 * @param state filled with mino, tau, t, r, th, ph, tDot, rDot, thDot, phDot, eCum
+	 * @return the number of steps taken
+	 */
+	long getState (double[] state) {
+		state[0] = mino;
+		state[1] = tau;
+		state[2] = t;
+		state[3] = r;
+		state[4] = th;
+		state[5] = ph;
+		state[6] = tDot;
+		state[7] = rDot;
+		state[8] = thDot;
+		state[9] = phDot;
+		state[10] = eCum;
+		return steps;
+	}
+	
+	/**
+	 * Restore a snapshot taken by getState(), the next simulate() continues from it instead of starting from the initial conditions
+	 */
+	void setState (double[] state, long steps) {
+		mino = state[0];
+		tau = state[1];
+		t = state[2];
+		r = state[3];
+		th = state[4];
+		ph = state[5];
+		tDot = state[6];
+		rDot = state[7];
+		thDot = state[8];
+		phDot = state[9];
+		eCum = state[10];
+		this.steps = steps;
+		resumed = true;
+	}
+	
+	/**
+	 * @return the number of Mino time steps taken by the last call to simulate()
+	 */
+	public long getSteps () {
+		return steps;
+	}
+	
+	/**
+	 * @return why the last call to simulate() stopped
+	 */
+	public Termination getTermination () {
+		return cancelled ? Termination.CANCELLED : (r > horizon ? Termination.TIME : Termination.HORIZON);
+	}
+	
+	/**
+	 * Stop simulate() at the end of the current step, safe to call from any thread
+	 */
+	public void cancel () {
+		cancelled = true;
+	}
+	
+	/**
+	 * Choose which record fields simulate() fills in; the others are left as NaN. Mino time, tau, the coordinates and the cumulative error sum are
+	 * always kept up to date, but the Cartesian position, the velocities divided by sigma and the logarithmic error fields are only computed when
+	 * selected, so a projection onto a few coordinates saves most of the transcendental work outside the integrator.
+	 * @param fields bit i set to select field i of {@link TrajectorySink}, default TrajectorySink.ALL
+	 * @throws IllegalArgumentException if no field is selected
+	 */
+	public void setFields (int fields) {
+		this.fields = checkFields(fields);
+	}
+	
+	/**
+	 * @return the selection made by setFields()
+	 */
+	int getFields () {
+		return fields;
+	}
+	
+	private boolean selected (int field) {
+		return (fields & (1 << field)) != 0;
+	}
+	
 	private double clamp (double potential) {
 		return potential >= 0.0 ? potential : 0.0;
 	}
 	
-	private void updateIntermediates () {
-		r2 = r * r;
-		ra2 = r2 + a2;
+	void updateIntermediates () {
 		sth = sin(th);
 		cth = cos(th);
+		updatePotentials();
+	}
+	
+	/**
+	 * Advance sin th and cos th through a small change in th by angle addition, then update the other intermediates
+	 * @param angle the change in th
+	 */
+	private void rotate (double angle) {
+		double x2 = angle * angle;
+		double s, c;
+		if (abs(angle) < SERIES_LIMIT) {  // Taylor series, the first omitted terms are below rounding
+			s = angle * (1.0 + x2 * (S3 + x2 * (S5 + x2 * (S7 + x2 * S9))));
+			c = 1.0 + x2 * (C2 + x2 * (C4 + x2 * (C6 + x2 * (C8 + x2 * C10))));
+		} else {
+			s = sin(angle);
+			c = cos(angle);
+		}
+		double sNew = sth * c + cth * s;
+		double cNew = cth * c - sth * s;
+		if (++rotations == RENORMALISE) {  // one Newton step towards unit length is enough for the rounding of a few rotations
+			rotations = 0;
+			double k = 0.5 * (3.0 - (sNew * sNew + cNew * cNew));
+			sNew *= k;
+			cNew *= k;
+		}
+		sth = sNew;
+		cth = cNew;
+		updatePotentials();
+	}
+	
+	private void updatePotentials () {
+		r2 = r * r;
+		ra2 = r2 + a2;
 		sth2 = sth * sth;
 		cth2 = cth * cth;
 		delta = ra2 - 2.0 * M * r;
@@ -100,12 +363,18 @@ public final class KerrMotion {
 		THETA = Q - cth2 * TH;  // MTW eq.33.33a
 	}
 	
-	private void errors () {
+	private void errors (boolean total, boolean radial, boolean polar) {  // decibel values only when wanted, the sum always
 		double e_r = abs(rDot * rDot - clamp(R)) / 2.0;
 		double e_th = abs(thDot * thDot - clamp(THETA)) / 2.0;
-		eR = 10.0 * log10(e_r >= nf ? e_r : nf);
-		eTh = 10.0 * log10(e_th >= nf ? e_th : nf);
-		e =  10.0 * log10(e_r + e_th >= nf ? e_r + e_th: nf);
+		if (radial) {
+			eR = 10.0 * log10(e_r >= nf ? e_r : nf);
+		}
+		if (polar) {
+			eTh = 10.0 * log10(e_th >= nf ? e_th : nf);
+		}
+		if (total) {
+			e =  10.0 * log10(e_r + e_th >= nf ? e_r + e_th: nf);
+		}
 		eCum += e_r + e_th;
 	}
 	
@@ -120,49 +389,187 @@ public final class KerrMotion {
 		ph += ts * phDot;
 	}
 	
+	@Override
 	void updateQ (double c) {  // dH/dX
 		r += c * ts * rDot;
-		th += c * ts * thDot;
-		updateIntermediates();
+		double thStep = c * ts * thDot;
+		th += thStep;
+		if (rotation) {
+			rotate(thStep);
+		} else {
+			updateIntermediates();
+		}
+		if (variational) {
+			dr += c * ts * drDot;
+			dth += c * ts * dthDot;
+		}
 	}
 	
+	@Override
+	void updateQ (double c1, double c2) {  // dH/dX, increments applied separately to keep the rounding of two single drifts
+		r += c1 * ts * rDot;
+		double thStep1 = c1 * ts * thDot;
+		th += thStep1;
+		r += c2 * ts * rDot;
+		double thStep2 = c2 * ts * thDot;
+		th += thStep2;
+		if (rotation) {
+			rotate(thStep1 + thStep2);
+		} else {
+			updateIntermediates();
+		}
+		if (variational) {
+			dr += (c1 + c2) * ts * drDot;
+			dth += (c1 + c2) * ts * dthDot;
+		}
+	}
+	
+	@Override
 	void updateP (double c) {  // dH/dXdot
 		rDot += c * ts * (2.0 * r * E * P1 - P2 * (r - M) - mu2 * r * delta);  // dR/dr see Maxima file maths.wxm, "My Equations (Mino Time)"
 		thDot += c * ts * (cth * sth * TH + L2 * cth2 * cth / (sth2 * sth));  // dTheta/dtheta see Maxima file maths.wxm, "My Equations (Mino Time)"
+		if (variational) {  // the derivatives of the two forces above
+			drDot += c * ts * (2.0 * E * P1 + 4.0 * r2 * E2 - P2 - mu2 * delta - 4.0 * mu2 * r * (r - M)) * dr;
+			dthDot += c * ts * (a2mu2_E2 * (cth2 - sth2) - L2 * (sth2 + 3.0 * cth2) / (sth2 * sth2)) * dth;
+		}
 	}
 	
-	public double simulate () {
+	/**
+	 * @return whether the initial conditions lie where motion is possible, with both potentials non-negative to within rounding
+	 */
+	boolean allowed () {
+		updateIntermediates();
+		return R >= - 1.0e-12 * P1 * P1 && THETA >= - 1.0e-12 * (Q + 1.0);
+	}
+	
+	/**
+	 * Set the initial (ingoing) velocities from the potentials
+	 */
+	void initialise () {
 		updateIntermediates();
 		rDot = - sqrt(clamp(R));  // MTW eq.33.32b
 		thDot = - sqrt(clamp(THETA));  // MTW eq.33.32a
 		update_t_phi_Dot();
+	}
+	
+	public double simulate () {
+		if (resumed) {
+			updateIntermediates();  // everything else is in the snapshot
+			resumed = false;
+		} else {
+			initialise();
+		}
+		if (SimulationMetrics.ENABLED) {
+			SimulationMetrics.get().started();
+			sampledSteps = steps;
+			sampledNanos = System.nanoTime();
+		}
+		final boolean all = fields == TrajectorySink.ALL;
+		final boolean metrics = all || SimulationMetrics.ENABLED;  // sample() reads the decibel errors
+		final boolean total = metrics || selected(TrajectorySink.E), radial = metrics || selected(TrajectorySink.ER), polar = metrics || selected(TrajectorySink.ETH);
+		final boolean cumulative = all || selected(TrajectorySink.EC);
+		final boolean tVelocity = all || selected(TrajectorySink.TDOT), rVelocity = all || selected(TrajectorySink.RDOT);
+		final boolean thVelocity = all || selected(TrajectorySink.THDOT), phVelocity = all || selected(TrajectorySink.PHDOT);
+		final boolean x = all || selected(TrajectorySink.X), y = all || selected(TrajectorySink.Y), z = all || selected(TrajectorySink.Z);
+		for (int i = 0; i < TrajectorySink.FIELDS; i++) {
+			if (! selected(i)) {
+				record[i] = Double.NaN;
+			}
+		}
 		do {
-			double ra = sqrt(ra2);
+			if (checkpoint != null && checkpoint.due(steps)) {
+				checkpoint();
+			}
 			double sigma = (r2 + a2 * cth2);
-			errors();
-			System.out.printf("{\"mino\":%.9e, \"tau\":%.9e, \"E\":%.1f, \"ER\":%.1f, \"ETh\":%.1f, \"EC\":%.1f, \"t\":%.9e, \"r\":%.9e, \"th\":%.9e, \"ph\":%.9e, \"tDot\":%.9e, \"rDot\":%.9e, \"thDot\":%.9e, \"phDot\":%.9e, \"x\":%.9e, \"y\":%.9e, \"z\":%.9e}%n",
-					mino, tau, e, eR, eTh, 10.0 * log10(eCum >= nf ? eCum : nf), t, r, th, ph, tDot / sigma, rDot / sigma, thDot / sigma, phDot / sigma, ra * sth * cos(ph), ra * sth * sin(ph), r * cth);
+			errors(total, radial, polar);
+			record[TrajectorySink.MINO] = mino;
+			record[TrajectorySink.TAU] = tau;
+			if (total) {
+				record[TrajectorySink.E] = e;
+			}
+			if (radial) {
+				record[TrajectorySink.ER] = eR;
+			}
+			if (polar) {
+				record[TrajectorySink.ETH] = eTh;
+			}
+			if (cumulative) {
+				record[TrajectorySink.EC] = 10.0 * log10(eCum >= nf ? eCum : nf);
+			}
+			record[TrajectorySink.T] = t;
+			record[TrajectorySink.R] = r;
+			record[TrajectorySink.TH] = th;
+			record[TrajectorySink.PH] = ph;
+			if (tVelocity) {
+				record[TrajectorySink.TDOT] = tDot / sigma;
+			}
+			if (rVelocity) {
+				record[TrajectorySink.RDOT] = rDot / sigma;
+			}
+			if (thVelocity) {
+				record[TrajectorySink.THDOT] = thDot / sigma;
+			}
+			if (phVelocity) {
+				record[TrajectorySink.PHDOT] = phDot / sigma;
+			}
+			if (x || y) {
+				double ra = sqrt(ra2);
+				if (x) {
+					record[TrajectorySink.X] = ra * sth * cos(ph);
+				}
+				if (y) {
+					record[TrajectorySink.Y] = ra * sth * sin(ph);
+				}
+			}
+			if (z) {
+				record[TrajectorySink.Z] = r * cth;
+			}
+			if (SimulationMetrics.ENABLED && steps - sampledSteps >= SimulationMetrics.INTERVAL) {
+				sample();
+			}
+			sink.write(record);
 			update_t_phi();  // Euler
 			integrator.solve(this);
 			mino += ts;
 			tau += ts * sigma;
-		} while (r > horizon && mino <= T);  // outside horizon and in proper time range
+			steps++;
+			if (variational && ++sinceRenormalised == renormaliseEvery) {
+				renormalise();
+			}
+		} while (r > horizon && mino <= T && ! cancelled);  // outside horizon and in proper time range
+		if (SimulationMetrics.ENABLED) {
+			sample();
+			SimulationMetrics.get().completed();
+		}
 		return eCum;
 	}
 	
+	private void sample () {
+		long now = System.nanoTime();
+		SimulationMetrics.get().sample(integrator, steps - sampledSteps, now - sampledNanos, record[TrajectorySink.R], record[TrajectorySink.E], record[TrajectorySink.ER], record[TrajectorySink.ETH]);
+		sampledSteps = steps;
+		sampledNanos = now;
+	}
+	
+	private void checkpoint () {
+		try {
+			if (sink instanceof Flushable) {
+				((Flushable)sink).flush();
+			}
+			checkpoint.save(this);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	/**
-	 * Read initial conditions from a JSON-formatted parameter file using Google's SimpleJSON library
-	 * 
-	 * @param args[0] the path to the file, if no args then read from stdin
-	 * @throws IOException 
+	 * Read a JSON-formatted parameter object using Google's SimpleJSON library
+	 * @param reader the source of the JSON text, closed on return
+	 * @return the parsed object
+	 * @throws IOException
 	 */
-	public static void main (String[] args) throws IOException {
-		BufferedReader bufferedReader;
-		if (args.length == 1) {
-			bufferedReader = new BufferedReader(new FileReader(new File(args[0])));
-		} else {
-			bufferedReader = new BufferedReader(new InputStreamReader(System.in));
-		}
+	public static JSONObject readJson (Reader reader) throws IOException {
+		BufferedReader bufferedReader = new BufferedReader(reader);
 		StringBuilder data = new StringBuilder();
 		String line = bufferedReader.readLine();
 		while (line != null) {
@@ -170,8 +577,288 @@ public final class KerrMotion {
 			line = bufferedReader.readLine();
 		}
 		bufferedReader.close();
-		JSONObject ic = (JSONObject)JSONValue.parse(data.toString());
-		new KerrMotion ((double)ic.get("M"), (double)ic.get("a"), (double)ic.get("mu"), (double)ic.get("E"), (double)ic.get("Lz"), (double)ic.get("C"),
-			(double)ic.get("r"), (double)ic.get("theta"), (double)ic.get("time"), (double)ic.get("step"), ((Long)ic.get("integratorOrder")).intValue()).simulate();
+		return (JSONObject)JSONValue.parse(data.toString());
+	}
+	
+	/**
+	 * Construct a simulation from a parsed set of initial conditions
+	 * @param ic the parameter object, as read from the JSON parameter file
+	 * @return the new instance
+	 */
+	public static KerrMotion fromJson (JSONObject ic) {
+		double[] p = parameters(ic);
+		KerrMotion bh = new KerrMotion (p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], integrator(ic));
+		bh.setFields(fields(ic));
+		return bh;
+	}
+	
+	/**
+	 * @param ic the parameter object, as read from the JSON parameter file
+	 * @return the real-valued parameters in constructor order: M, a, mu, E, Lz, C, r, theta, time, step
+	 */
+	static double[] parameters (JSONObject ic) {
+		return new double[] { (double)ic.get("M"), (double)ic.get("a"), (double)ic.get("mu"), (double)ic.get("E"), (double)ic.get("Lz"), (double)ic.get("C"),
+			(double)ic.get("r"), (double)ic.get("theta"), (double)ic.get("time"), (double)ic.get("step") };
+	}
+	
+	/**
+	 * @param ic the parameter object, as read from the JSON parameter file
+	 * @return the integrator named by the optional "integrator" key, otherwise the Yoshida integrator of order "integratorOrder"
+	 */
+	static Integrator integrator (JSONObject ic) {
+		Object name = ic.get("integrator");
+		return name != null ? Integrator.valueOf((String)name) : Integrator.forOrder(((Long)ic.get("integratorOrder")).intValue());
+	}
+	
+	/**
+	 * @param ic the parameter object, as read from the JSON parameter file
+	 * @return the selection in the optional "fields" array of keys, otherwise all fields
+	 */
+	static int fields (JSONObject ic) {
+		Object names = ic.get("fields");
+		if (names == null) {
+			return TrajectorySink.ALL;
+		}
+		int fields = 0;
+		for (Object name : (List<?>)names) {
+			fields |= field((String)name);
+		}
+		return checkFields(fields);
+	}
+	
+	/**
+	 * @param names comma separated field keys, see TrajectorySink.KEYS
+	 * @return the selection, see setFields()
+	 */
+	static int fields (String names) {
+		int fields = 0;
+		for (String name : names.split(",")) {
+			fields |= field(name.trim());
+		}
+		return checkFields(fields);
+	}
+	
+	/**
+	 * @param fields a selection, see setFields()
+	 * @return the selection
+	 * @throws IllegalArgumentException if it selects nothing, which would make every record an empty object
+	 */
+	static int checkFields (int fields) {
+		if ((fields & TrajectorySink.ALL) == 0) {
+			throw new IllegalArgumentException("no fields selected");
+		}
+		return fields;
+	}
+	
+	private static int field (String name) {
+		int field = Arrays.asList(TrajectorySink.KEYS).indexOf(name);
+		if (field < 0) {
+			throw new IllegalArgumentException("Unknown field " + name);
+		}
+		return 1 << field;
+	}
+	
+	/**
+	 * Read initial conditions from a JSON-formatted parameter file using Google's SimpleJSON library
+	 * 
+	 * @param args the path to the parameter file, if absent then read from stdin; options:
+	 * <pre>
+	 * -binary &lt;file&gt;      write the trajectory to a binary file (see {@link BinarySink}) instead of JSON to stdout
+	 * -output &lt;file&gt;      write the JSON trajectory to a file instead of stdout
+	 * -checkpoint &lt;file&gt;  keep a snapshot of the integration (see {@link Checkpoint}), by default every 60 seconds
+	 * -every &lt;steps&gt;      snapshot after this many steps
+	 * -seconds &lt;s&gt;        snapshot after this much wall time
+	 * -resume              continue from the snapshot, truncating the trajectory file to the snapshot and appending to it
+	 * -cache &lt;dir&gt;        replay the trajectory from a {@link ResultCache} if this run has been done before, otherwise run it and store it there
+	 * -cacheMB &lt;n&gt;        evict least recently used results beyond this size, default 1024
+	 * -rotation            advance sin th and cos th by rotation instead of calling Math.sin and Math.cos, see setRotation(), not with -cache or -checkpoint
+	 * -lod &lt;base&gt;         also write a level-of-detail pyramid, see {@link PyramidSink}, to &lt;base&gt;.1 to &lt;base&gt;.6
+	 * -async &lt;records&gt;    write the output on its own thread through a ring of this many records, see {@link AsyncSink}
+	 * -drop                with -async, drop records while the ring is full instead of waiting
+	 * -resample t|tau &lt;dt&gt; write records at uniform spacing in coordinate or proper time instead of one per step, see {@link ResampleSink}
+	 * -live &lt;file&gt;        also publish each step to a shared memory ring file for live readers, see {@link RingFileSink}
+	 * -liveRecords &lt;n&gt;    the number of records in the ring file, default 65536
+	 * -fields &lt;keys&gt;      write only these comma separated fields, as the "fields" array of the parameter file does, see setFields()
+	 * -lyapunov &lt;steps&gt;   integrate the variational equations, rescaling after this many steps and printing the running maximal Lyapunov
+	 *                      exponent to stderr, see setVariational()
+	 * </pre>
+	 * @throws IOException 
+	 */
+	public static void main (String[] args) throws IOException {
+		String icFile = null, binaryFile = null, outputFile = null, checkpointFile = null, cacheDirectory = null, lodBase = null, liveFile = null, fieldList = null;
+		long every = 0, cacheMB = 1024, lyapunovEvery = 0;
+		double seconds = 0.0;
+		boolean resume = false, rotation = false, drop = false;
+		int async = 0, liveRecords = 1 << 16, resampleField = -1;
+		double resampleSpacing = 0.0;
+		for (int i = 0; i < args.length; i++) {
+			if ("-binary".equals(args[i]) && i + 1 < args.length) {
+				binaryFile = args[++i];
+			} else if ("-output".equals(args[i]) && i + 1 < args.length) {
+				outputFile = args[++i];
+			} else if ("-checkpoint".equals(args[i]) && i + 1 < args.length) {
+				checkpointFile = args[++i];
+			} else if ("-every".equals(args[i]) && i + 1 < args.length) {
+				every = Long.parseLong(args[++i]);
+			} else if ("-seconds".equals(args[i]) && i + 1 < args.length) {
+				seconds = Double.parseDouble(args[++i]);
+			} else if ("-resume".equals(args[i])) {
+				resume = true;
+			} else if ("-cache".equals(args[i]) && i + 1 < args.length) {
+				cacheDirectory = args[++i];
+			} else if ("-cacheMB".equals(args[i]) && i + 1 < args.length) {
+				cacheMB = Long.parseLong(args[++i]);
+			} else if ("-rotation".equals(args[i])) {
+				rotation = true;
+			} else if ("-async".equals(args[i]) && i + 1 < args.length) {
+				async = Integer.parseInt(args[++i]);
+			} else if ("-drop".equals(args[i])) {
+				drop = true;
+			} else if ("-resample".equals(args[i]) && i + 2 < args.length) {
+				resampleField = Arrays.asList(TrajectorySink.KEYS).indexOf(args[++i]);
+				if (resampleField < 0) {
+					throw new IllegalArgumentException("Unknown field " + args[i]);
+				}
+				resampleSpacing = Double.parseDouble(args[++i]);
+			} else if ("-live".equals(args[i]) && i + 1 < args.length) {
+				liveFile = args[++i];
+			} else if ("-liveRecords".equals(args[i]) && i + 1 < args.length) {
+				liveRecords = Integer.parseInt(args[++i]);
+			} else if ("-lod".equals(args[i]) && i + 1 < args.length) {
+				lodBase = args[++i];
+			} else if ("-fields".equals(args[i]) && i + 1 < args.length) {
+				fieldList = args[++i];
+			} else if ("-lyapunov".equals(args[i]) && i + 1 < args.length) {
+				lyapunovEvery = Long.parseLong(args[++i]);
+			} else {
+				icFile = args[i];
+			}
+		}
+		if (cacheDirectory != null && checkpointFile != null) {
+			System.err.println("-cache cannot be combined with -checkpoint");
+			System.exit(1);
+		}
+		if (cacheDirectory != null && rotation) {
+			System.err.println("-cache cannot be combined with -rotation");
+			System.exit(1);
+		}
+		if (checkpointFile != null && rotation) {
+			System.err.println("-checkpoint cannot be combined with -rotation, which keeps state the checkpoint does not record");
+			System.exit(1);
+		}
+		if (drop && (cacheDirectory != null || checkpointFile != null)) {
+			System.err.println("-drop cannot be combined with -cache or -checkpoint, which need every record");
+			System.exit(1);
+		}
+		if (resampleField >= 0 && checkpointFile != null) {
+			System.err.println("-resample cannot be combined with -checkpoint, which needs one record per step");
+			System.exit(1);
+		}
+		if (lyapunovEvery > 0 && (cacheDirectory != null || checkpointFile != null)) {
+			System.err.println("-lyapunov cannot be combined with -cache or -checkpoint, which do not keep the tangent vector");
+			System.exit(1);
+		}
+		if (lodBase != null && resume) {
+			System.err.println("-lod cannot be combined with -resume");
+			System.exit(1);
+		}
+		Reader reader;
+		if (icFile != null) {
+			reader = new FileReader(new File(icFile));
+		} else {
+			reader = new InputStreamReader(System.in);
+		}
+		JSONObject ic = readJson(reader);
+		final KerrMotion bh = fromJson(ic);
+		bh.setRotation(rotation);
+		int fields = fieldList != null ? fields(fieldList) : bh.getFields();
+		long records = 0;
+		if (checkpointFile != null) {
+			Checkpoint checkpoint = new Checkpoint(new File(checkpointFile), parameters(ic), integrator(ic), every, every == 0 && seconds == 0.0 ? 60.0 : seconds);
+			if (resume) {
+				records = checkpoint.restore(bh);
+			}
+			bh.setCheckpoint(checkpoint);
+		}
+		TrajectorySink sink;
+		if (binaryFile != null) {
+			sink = resume ? new BinarySink(new File(binaryFile), records) : new BinarySink(new File(binaryFile), parameters(ic), integrator(ic).getOrder());
+		} else {
+			FastJsonSink json;
+			if (outputFile != null) {
+				json = resume ? FastJsonSink.append(new File(outputFile), records) : new FastJsonSink(new FileOutputStream(outputFile).getChannel());
+			} else {
+				json = FastJsonSink.stdout();
+			}
+			json.setFields(fields);
+			sink = json;
+		}
+		if (resampleField >= 0) {
+			sink = new ResampleSink(sink, parameters(ic)[1], resampleField, resampleSpacing);
+		}
+		if (lodBase != null) {
+			sink = new TeeSink(sink, new PyramidSink(lodBase, 6));
+		}
+		ResultCache cache = null;
+		String key = null;
+		File trajectory = null;
+		try {
+			if (cacheDirectory != null) {
+				cache = new ResultCache(new File(cacheDirectory), cacheMB << 20);
+				key = ResultCache.key(parameters(ic), integrator(ic));
+				ResultCache.Entry entry = cache.get(key, true);
+				if (entry != null) {
+					entry.getTrajectory().replay(sink);
+					sink.close();
+					return;
+				}
+				trajectory = cache.temporaryFile();
+				sink = new TeeSink(sink, new BinarySink(trajectory, parameters(ic), integrator(ic).getOrder()));
+			}
+			AsyncSink pipeline = null;
+			if (async > 0) {
+				sink = pipeline = new AsyncSink(sink, async, drop ? AsyncSink.Backpressure.DROP : AsyncSink.Backpressure.BLOCK);
+			}
+			if (liveFile != null) {  // on the integrating thread, so live readers see each step as soon as it is taken
+				sink = new TeeSink(sink, new RingFileSink(new File(liveFile), liveRecords, parameters(ic), integrator(ic).getOrder()));
+			}
+			if (lyapunovEvery > 0) {
+				bh.setVariational(lyapunovEvery);
+				final TrajectorySink downstream = sink;
+				final long interval = lyapunovEvery;
+				sink = new TrajectorySink() {  // records are written before each step, so the tangent vector is in step with them
+					private long records;
+				
+					@Override
+					public void write (double[] record) {
+						downstream.write(record);
+						if (++records % interval == 0) {
+							System.err.println("{\"mino\":" + record[MINO] + ", \"tau\":" + record[TAU] + ", \"lyapunov\":" + bh.getLyapunov()
+									+ ", \"lyapunovTau\":" + bh.getLyapunovTau() + "}");
+						}
+					}
+				
+					@Override
+					public void close () {
+						downstream.close();
+					}
+				};
+			}
+			bh.setFields(cacheDirectory == null && lodBase == null && liveFile == null && resampleField < 0 ? fields : TrajectorySink.ALL);  // those need whole records
+			bh.setSink(sink);
+			double eCum = bh.simulate();
+			bh.sink.close();
+			if (cache != null) {
+				cache.put(key, bh, eCum, trajectory);
+			}
+			if (pipeline != null) {
+				System.err.println("async output: " + pipeline.getRecords() + " records, " + pipeline.getStalls() + " stalls, "
+						+ pipeline.getStallNanos() * 1.0e-6 + " ms waiting, " + pipeline.getDropped() + " dropped");
+			}
+		} finally {
+			if (trajectory != null) {  // already moved into the cache unless the run failed
+				trajectory.delete();
+			}
+		}
 	}
 }
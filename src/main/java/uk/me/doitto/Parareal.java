@@ -0,0 +1,348 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONObject;
+
+import uk.me.doitto.KerrMotion.Termination;
+
+/**
+ * @author ian
+ * <p>
+ * Parallel-in-time integration of a single long trajectory by the Parareal scheme.
+ * <p>
+ * The run is cut into slices of equal numbers of fine steps. Each iteration integrates every unconverged slice concurrently with the fine
+ * integrator from its current starting state, then sweeps through the slice boundaries in order, predicting each with a cheap coarse integrator
+ * and correcting the prediction by the difference the fine integrator made on the previous iteration:
+ * <pre>
+ *   U[j + 1] = G(U'[j]) + F(U[j]) - G(U[j])
+ * </pre>
+ * After k iterations the first k slices are exact, so the scheme converges in at most as many iterations as there are slices; it pays off when it
+ * converges in far fewer. The states are the KerrMotion snapshots also used by {@link Checkpoint}, except that Mino time always comes from the
+ * fine integrator and the cumulative error is carried over as the sum of the fine errors rather than predicted. The fine trajectory of each slice
+ * is kept in a temporary binary file and the slices are stitched together in order at the end.
+ */
+public final class Parareal {
+	
+	private static final int MINO = 0, T = 2, R = 3, TH = 4, PH = 5, RDOT = 7, THDOT = 8, ECUM = 10;  // indices into the KerrMotion state
+	
+	private final double[] parameters;
+	
+	private final Integrator fine, coarse;
+	
+	private final double coarseStep, tolerance;
+	
+	private final int slices;
+	
+	private int iterations;
+	
+	private long fineSteps, coarseSteps;
+	
+	private double change;
+	
+	private final double[] last = new double[KerrMotion.STATE_SIZE];
+	
+	/**
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step; the step is the fine step
+	 * @param fine the accurate integrator
+	 * @param coarse the cheap integrator used for predictions
+	 * @param coarseStep the step of the coarse integrator, a multiple of the fine step
+	 * @param slices the number of pieces the run is cut into
+	 * @param tolerance the largest change in r, th, rDot, thDot or cumulative error at any slice boundary at which the iteration has converged
+	 */
+	public Parareal (double[] parameters, Integrator fine, Integrator coarse, double coarseStep, int slices, double tolerance) {
+		this.parameters = parameters.clone();
+		this.fine = fine;
+		this.coarse = coarse;
+		this.coarseStep = coarseStep;
+		this.slices = slices;
+		this.tolerance = tolerance;
+	}
+	
+	/**
+	 * Cancels an integration after a given number of records, so that it has then taken exactly that many steps
+	 */
+	private static final class Limit implements TrajectorySink {
+		
+		private final KerrMotion bh;
+		
+		private final TrajectorySink downstream;
+		
+		private long remaining;
+		
+		Limit (KerrMotion bh, long records, TrajectorySink downstream) {
+			this.bh = bh;
+			this.remaining = records;
+			this.downstream = downstream;
+		}
+		
+		@Override
+		public void write (double[] record) {
+			downstream.write(record);
+			if (--remaining == 0) {
+				bh.cancel();
+			}
+		}
+		
+		@Override
+		public void close () {
+			downstream.close();
+		}
+	}
+	
+	/**
+	 * Integrate from a state for a number of steps
+	 * @param integrator the integrator
+	 * @param step its step
+	 * @param start the state to start from, see KerrMotion.getState()
+	 * @param steps how many steps to take, or 0 to carry on until the end of the run
+	 * @param sink receives the records, not closed
+	 * @param end receives the final state
+	 * @return how the integration stopped
+	 */
+	private Termination propagate (Integrator integrator, double step, double[] start, long steps, TrajectorySink sink, double[] end) {
+		double[] p = parameters;
+		KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], step, integrator);
+		bh.setState(start, 0);
+		bh.setSink(steps > 0 ? new Limit(bh, steps, sink) : sink);
+		bh.simulate();
+		bh.getState(end);
+		synchronized (this) {
+			if (integrator == fine) {
+				fineSteps += bh.getSteps();
+			} else {
+				coarseSteps += bh.getSteps();
+			}
+		}
+		return bh.getTermination();
+	}
+	
+	/**
+	 * Run the whole integration
+	 * @param pool runs the fine slices, its parallelism sets the number of cores used
+	 * @param sink receives the stitched fine trajectory, or NullSink.INSTANCE to skip keeping it; not closed
+	 * @return the cumulative error of the fine trajectory, as simulate() would return
+	 * @throws IOException if the temporary slice files cannot be written
+	 */
+	public double run (ForkJoinPool pool, TrajectorySink sink) throws IOException {
+		final long total = (long)Math.floor(parameters[8] / parameters[9]) + 1, perSlice = (total + slices - 1) / slices;
+		final long coarsePerSlice = Math.max(1, Math.round(perSlice * parameters[9] / coarseStep));
+		final boolean keep = sink != NullSink.INSTANCE;
+		final File directory = keep ? Files.createTempDirectory("parareal").toFile() : null;
+		final double[][] u = new double[slices][KerrMotion.STATE_SIZE], f = new double[slices][KerrMotion.STATE_SIZE], g = new double[slices][KerrMotion.STATE_SIZE];
+		final double[] started = new double[slices];  // eCum at the start of each fine slice
+		final Termination[] terminations = new Termination[slices];
+		double[] p = parameters;
+		KerrMotion initial = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], fine);
+		initial.initialise();
+		initial.getState(u[0]);
+		for (int j = 0; j + 1 < slices; j++) {  // initial prediction by the coarse integrator alone
+			propagate(coarse, coarseStep, u[j], coarsePerSlice, NullSink.INSTANCE, g[j]);
+			System.arraycopy(g[j], 0, u[j + 1], 0, KerrMotion.STATE_SIZE);
+			u[j + 1][MINO] = (j + 1) * perSlice * parameters[9];
+		}
+		iterations = 0;
+		int first = 0;  // slices before this one are exact
+		try {
+			while (true) {
+				iterations++;
+				List<Callable<Termination>> tasks = new ArrayList<Callable<Termination>>();
+				for (int j = first; j < slices; j++) {
+					final int slice = j;
+					started[j] = u[j][ECUM];
+					tasks.add(new Callable<Termination>() {
+						@Override
+						public Termination call () throws IOException {
+							TrajectorySink output = keep ? new BinarySink(new File(directory, slice + ".bin"), parameters, fine.getOrder()) : NullSink.INSTANCE;
+							try {
+								return propagate(fine, parameters[9], u[slice], slice + 1 < slices ? perSlice : 0, output, f[slice]);
+							} finally {
+								output.close();
+							}
+						}
+					});
+				}
+				List<Future<Termination>> results = pool.invokeAll(tasks);
+				for (int j = first; j < slices; j++) {
+					terminations[j] = results.get(j - first).get();
+				}
+				int plunge = slices;
+				for (int j = first; j < slices; j++) {
+					if (terminations[j] == Termination.HORIZON) {
+						plunge = j;
+						break;
+					}
+				}
+				change = 0.0;
+				double[] predicted = new double[KerrMotion.STATE_SIZE];
+				for (int j = first; j + 1 < slices && j < plunge; j++) {  // serial correction sweep
+					double[] corrected = new double[KerrMotion.STATE_SIZE];
+					if (j == first) {
+						System.arraycopy(f[j], 0, corrected, 0, KerrMotion.STATE_SIZE);  // the start of this slice was exact, so is its fine result
+					} else {
+						propagate(coarse, coarseStep, u[j], coarsePerSlice, NullSink.INSTANCE, predicted);
+						for (int i = 0; i < KerrMotion.STATE_SIZE; i++) {
+							corrected[i] = predicted[i] + f[j][i] - g[j][i];
+						}
+						System.arraycopy(predicted, 0, g[j], 0, KerrMotion.STATE_SIZE);
+					}
+					corrected[MINO] = f[j][MINO];
+					corrected[ECUM] = u[j][ECUM] + f[j][ECUM] - started[j];  // a sum of fine errors, carried over rather than predicted
+					for (int i : new int[] { R, TH, RDOT, THDOT, ECUM }) {
+						change = Math.max(change, Math.abs(corrected[i] - u[j + 1][i]));
+					}
+					System.arraycopy(corrected, 0, u[j + 1], 0, KerrMotion.STATE_SIZE);
+				}
+				if (plunge == first || change <= tolerance || first + 1 >= slices) {  // a plunge from an unconverged start may be spurious
+					int end = Math.min(plunge, slices - 1);
+					System.arraycopy(f[end], 0, last, 0, KerrMotion.STATE_SIZE);
+					if (keep) {
+						for (int j = 0; j <= end; j++) {
+							new BinaryTrajectory(new File(directory, j + ".bin")).replay(sink);
+						}
+					}
+					return last[ECUM];
+				}
+				first++;
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			throw new IOException(e);
+		} finally {
+			if (keep) {
+				for (int j = 0; j < slices; j++) {
+					new File(directory, j + ".bin").delete();
+				}
+				directory.delete();
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of fine iterations of the last run
+	 */
+	public int getIterations () {
+		return iterations;
+	}
+	
+	/**
+	 * @return the largest boundary change in the last iteration
+	 */
+	public double getChange () {
+		return change;
+	}
+	
+	/**
+	 * @return all fine steps taken, over every slice and iteration
+	 */
+	public long getFineSteps () {
+		return fineSteps;
+	}
+	
+	/**
+	 * @return all coarse steps taken
+	 */
+	public long getCoarseSteps () {
+		return coarseSteps;
+	}
+	
+	/**
+	 * @return the final state, see KerrMotion.getState()
+	 */
+	public double[] getState () {
+		return last.clone();
+	}
+	
+	/**
+	 * Integrate one trajectory in parallel, optionally comparing against a serial run
+	 * @param args the initial conditions file or - for stdin, then options
+	 * @throws IOException on failure to read or write files
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 1) {
+			System.err.println("Usage: Parareal <ic.json | -> [-slices n] [-coarse step] [-tolerance x] [-threads n] [-output file.bin] [-serial]");
+			System.exit(1);
+		}
+		int threads = Runtime.getRuntime().availableProcessors(), slices = 4 * threads;
+		double coarseStep = 0.0, tolerance = 1.0e-9;
+		String output = null;
+		boolean serial = false;
+		for (int i = 1; i < args.length; i++) {
+			if ("-slices".equals(args[i])) {
+				slices = Integer.parseInt(args[++i]);
+			} else if ("-coarse".equals(args[i])) {
+				coarseStep = Double.parseDouble(args[++i]);
+			} else if ("-tolerance".equals(args[i])) {
+				tolerance = Double.parseDouble(args[++i]);
+			} else if ("-threads".equals(args[i])) {
+				threads = Integer.parseInt(args[++i]);
+			} else if ("-output".equals(args[i])) {
+				output = args[++i];
+			} else if ("-serial".equals(args[i])) {
+				serial = true;
+			} else {
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		Reader reader = "-".equals(args[0]) ? new InputStreamReader(System.in) : new FileReader(new File(args[0]));
+		JSONObject ic = KerrMotion.readJson(reader);
+		double[] p = KerrMotion.parameters(ic);
+		Integrator fine = KerrMotion.integrator(ic);
+		Parareal parareal = new Parareal(p, fine, Integrator.SV2, coarseStep > 0.0 ? coarseStep : 10.0 * p[9], slices, tolerance);
+		TrajectorySink sink = output != null ? new BinarySink(new File(output), p, fine.getOrder()) : NullSink.INSTANCE;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		double eCum;
+		try {
+			eCum = parareal.run(pool, sink);
+		} finally {
+			pool.shutdown();
+			sink.close();
+		}
+		double parallel = (System.nanoTime() - start) * 1.0e-9;
+		double[] state = parareal.getState();
+		System.err.println("Parareal: " + slices + " slices, " + parareal.getIterations() + " iterations, last change " + parareal.getChange() + ", "
+				+ parareal.getFineSteps() + " fine and " + parareal.getCoarseSteps() + " coarse steps in " + parallel + " s on " + threads + " threads");
+		System.err.println("  final t " + state[T] + " r " + state[R] + " th " + state[TH] + " ph " + state[PH] + " eCum " + eCum);
+		if (serial) {
+			KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], fine);
+			bh.setSink(NullSink.INSTANCE);
+			start = System.nanoTime();
+			double serialECum = bh.simulate();
+			double elapsed = (System.nanoTime() - start) * 1.0e-9;
+			double[] reference = new double[KerrMotion.STATE_SIZE];
+			bh.getState(reference);
+			double error = 0.0;
+			for (int i = 1; i < 10; i++) {
+				error = Math.max(error, Math.abs(state[i] - reference[i]));
+			}
+			System.err.println("Serial " + fine + ": " + bh.getSteps() + " steps in " + elapsed + " s, eCum " + serialECum);
+			System.err.println("  speedup " + elapsed / parallel + ", largest final state difference " + error);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author ian
+ * <p>
+ * Builds a level-of-detail pyramid of the trajectory as it is integrated, so that plots can load an overview without reading every record.
+ * <p>
+ * Level n summarises FACTOR<sup>n</sup> consecutive records per bucket, and is built from the buckets of level n - 1, so memory is constant
+ * whatever the length of the run. Each level is its own file, &lt;base&gt;.&lt;n&gt;, laid out little-endian as:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  int    HEADER_SIZE, offset of the first bucket
+ *  12  int    VALUES, the number of doubles per bucket
+ *  16  long   records per full bucket
+ *  24  long   number of buckets, updated on flush and close
+ *  32  zero padding
+ *  64  buckets, each VALUES doubles:
+ *      count  number of records summarised, less than a full bucket only for the last one
+ *      mino   of the last record
+ *      min, max, last of each field in TRACKED order
+ * </pre>
+ * Bucket b of level n covers records b * FACTOR<sup>n</sup> onwards, which is where to start reading a full resolution slice of a {@link BinaryTrajectory}.
+ */
+public final class PyramidSink implements TrajectorySink, Flushable {
+	
+	public static final int MAGIC = 0x4c4f4431;  // "LOD1"
+	
+	public static final int VERSION = 2;
+	
+	public static final int HEADER_SIZE = 64;
+	
+	public static final int FACTOR = 10;
+	
+	/**
+	 * The fields summarised in each bucket, every one after mino so that an overview has all the keys of a full trajectory
+	 */
+	public static final int[] TRACKED = { TAU, E, ER, ETH, EC, T, R, TH, PH, TDOT, RDOT, THDOT, PHDOT, X, Y, Z };
+	
+	public static final int COUNT = 0, MINO = 1, MIN = 0, MAX = 1, LAST = 2;
+	
+	public static final int VALUES = 2 + 3 * TRACKED.length;
+	
+	static final int BUCKETS_OFFSET = 24;
+	
+	private static final int BUFFER_BUCKETS = 256;
+	
+	private final RandomAccessFile[] files;
+	
+	private final FileChannel[] channels;
+	
+	private final ByteBuffer[] buffers;
+	
+	private final double[][] buckets;
+	
+	private final int[] children;
+	
+	private final long[] written;
+	
+	/**
+	 * Create (or overwrite) the level files
+	 * @param base the path to which each level number is appended
+	 * @param levels the number of levels, the coarsest summarising FACTOR<sup>levels</sup> records per bucket
+	 * @throws IOException
+	 */
+	public PyramidSink (String base, int levels) throws IOException {
+		files = new RandomAccessFile[levels];
+		channels = new FileChannel[levels];
+		buffers = new ByteBuffer[levels];
+		buckets = new double[levels][VALUES];
+		children = new int[levels];
+		written = new long[levels];
+		long records = 1;
+		for (int level = 0; level < levels; level++) {
+			records *= FACTOR;
+			files[level] = new RandomAccessFile(new File(base + "." + (level + 1)), "rw");
+			files[level].setLength(0);
+			channels[level] = files[level].getChannel();
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(HEADER_SIZE).putInt(VALUES).putLong(records).putLong(0L);
+			header.clear();
+			channels[level].write(header, 0);
+			buffers[level] = ByteBuffer.allocate(BUFFER_BUCKETS * VALUES * 8).order(ByteOrder.LITTLE_ENDIAN);
+			reset(buckets[level]);
+		}
+	}
+	
+	private static void reset (double[] bucket) {
+		bucket[COUNT] = 0.0;
+		for (int i = 0; i < TRACKED.length; i++) {
+			bucket[2 + 3 * i + MIN] = Double.POSITIVE_INFINITY;
+			bucket[2 + 3 * i + MAX] = Double.NEGATIVE_INFINITY;
+		}
+	}
+	
+	@Override
+	public void write (double[] record) {
+		double[] bucket = buckets[0];
+		bucket[COUNT] += 1.0;
+		bucket[MINO] = record[TrajectorySink.MINO];
+		for (int i = 0; i < TRACKED.length; i++) {
+			double value = record[TRACKED[i]];
+			int j = 2 + 3 * i;
+			if (value < bucket[j + MIN]) {
+				bucket[j + MIN] = value;
+			}
+			if (value > bucket[j + MAX]) {
+				bucket[j + MAX] = value;
+			}
+			bucket[j + LAST] = value;
+		}
+		if (++children[0] == FACTOR) {
+			emit(0);
+		}
+	}
+	
+	/**
+	 * Write out the bucket of a level, merge it into the level above and start a new one
+	 */
+	private void emit (int level) {
+		double[] bucket = buckets[level];
+		ByteBuffer buffer = buffers[level];
+		for (double value : bucket) {
+			buffer.putDouble(value);
+		}
+		written[level]++;
+		if (! buffer.hasRemaining()) {
+			drain(level);
+		}
+		if (level + 1 < buckets.length) {
+			double[] parent = buckets[level + 1];
+			parent[COUNT] += bucket[COUNT];
+			parent[MINO] = bucket[MINO];
+			for (int j = 2; j < VALUES; j += 3) {
+				parent[j + MIN] = Math.min(parent[j + MIN], bucket[j + MIN]);
+				parent[j + MAX] = Math.max(parent[j + MAX], bucket[j + MAX]);
+				parent[j + LAST] = bucket[j + LAST];
+			}
+			if (++children[level + 1] == FACTOR) {
+				emit(level + 1);
+			}
+		}
+		reset(bucket);
+		children[level] = 0;
+	}
+	
+	private void drain (int level) {
+		ByteBuffer buffer = buffers[level];
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channels[level].write(buffer, channels[level].size());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		buffer.clear();
+	}
+	
+	/**
+	 * Write the completed buckets of every level through to the files; partly filled buckets wait for close()
+	 */
+	@Override
+	public void flush () throws IOException {
+		for (int level = 0; level < channels.length; level++) {
+			drain(level);
+			ByteBuffer count = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			count.putLong(0, written[level]);
+			channels[level].write(count, BUCKETS_OFFSET);
+		}
+	}
+	
+	/**
+	 * Write out the partly filled last bucket of each level, then close the files
+	 */
+	@Override
+	public void close () {
+		try {
+			for (int level = 0; level < buckets.length; level++) {
+				if (buckets[level][COUNT] > 0.0) {
+					emit(level);
+				}
+			}
+			flush();
+			for (RandomAccessFile file : files) {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
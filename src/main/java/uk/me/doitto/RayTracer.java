@@ -0,0 +1,429 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.cos;
+import static java.lang.Math.floor;
+import static java.lang.Math.pow;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static java.lang.Math.tan;
+import static java.lang.Math.toRadians;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.imageio.ImageIO;
+
+/**
+ * @author ian
+ * <p>
+ * Backward ray tracing of the view of a distant observer: one null geodesic per pixel, integrated in Mino time with {@link KerrBatch}, from the
+ * camera towards the hole. Each ray ends captured (crossing the horizon), escaped (heading back out past the observer's radius), on a thin
+ * equatorial disk, or unresolved if it is still orbiting when the Mino time runs out. No trajectories are kept.
+ * <p>
+ * The image plane uses Bardeen's impact parameters (alpha, beta) at the observer, so that for a photon with E = 1 the constants are
+ * L = - alpha sin(i) and Q = beta^2 + cos^2(i) (alpha^2 - a^2). Pixels are grouped into square tiles, each tile is one batch, and the tiles are
+ * shared across the cores by a work-stealing pool. A batch stops as soon as all of its rays have ended.
+ */
+public final class RayTracer {
+	
+	/**
+	 * How a ray ended
+	 */
+	public enum Outcome {
+		CAPTURED, ESCAPED, DISK, UNRESOLVED;
+	}
+	
+	/**
+	 * Timing and outcome counts for one tile
+	 */
+	public static final class TileStats {
+		
+		final int x, y, width, height;
+		
+		final int[] outcomes = new int[Outcome.values().length];
+		
+		long batchSteps, raySteps, nanos;
+		
+		TileStats (int x, int y, int width, int height) {
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+		
+		/**
+		 * @return a single line JSON representation
+		 */
+		public String toJson () {
+			StringBuilder json = new StringBuilder();
+			json.append("{\"x\":").append(x).append(", \"y\":").append(y).append(", \"width\":").append(width).append(", \"height\":").append(height);
+			json.append(", \"batchSteps\":").append(batchSteps).append(", \"raySteps\":").append(raySteps).append(", \"millis\":").append(nanos / 1.0e6);
+			for (Outcome outcome : Outcome.values()) {
+				json.append(", \"").append(outcome).append("\":").append(outcomes[outcome.ordinal()]);
+			}
+			return json.append("}").toString();
+		}
+	}
+	
+	private final double a, observer, inclination, halfWidth, diskIn, diskOut, duration, step;
+	
+	private final int width, height, tile;
+	
+	private final Integrator integrator;
+	
+	private final byte[] outcomes;
+	
+	private final float[] radii, thetas, phis;  // disk radius for DISK, escape direction for ESCAPED
+	
+	/**
+	 * @param spin the black hole spin, M = 1
+	 * @param observer the observer's radius
+	 * @param inclination the observer's polar angle, radians
+	 * @param fieldOfView the angle across the width of the image, radians
+	 * @param width image width in pixels
+	 * @param height image height in pixels
+	 * @param diskIn inner radius of the equatorial disk
+	 * @param diskOut outer radius of the equatorial disk, or no greater than diskIn for no disk
+	 * @param duration the Mino time after which a ray is unresolved
+	 * @param step the Mino time step
+	 * @param integrator the integrator
+	 * @param tile tile width and height in pixels
+	 */
+	public RayTracer (double spin, double observer, double inclination, double fieldOfView, int width, int height, double diskIn, double diskOut,
+			double duration, double step, Integrator integrator, int tile) {
+		this.a = spin;
+		this.observer = observer;
+		this.inclination = inclination;
+		this.halfWidth = observer * tan(0.5 * fieldOfView);
+		this.width = width;
+		this.height = height;
+		this.diskIn = diskIn;
+		this.diskOut = diskOut;
+		this.duration = duration;
+		this.step = step;
+		this.integrator = integrator;
+		this.tile = tile;
+		outcomes = new byte[width * height];
+		radii = new float[width * height];
+		thetas = new float[width * height];
+		phis = new float[width * height];
+	}
+	
+	/**
+	 * @return the impact parameter alpha of the centre of a pixel column
+	 */
+	double alpha (int x) {
+		return halfWidth * (2.0 * (x + 0.5) / width - 1.0);
+	}
+	
+	/**
+	 * @return the impact parameter beta of the centre of a pixel row, positive towards the top of the image
+	 */
+	double beta (int y) {
+		return halfWidth * (height - 2.0 * (y + 0.5)) / width;
+	}
+	
+	/**
+	 * Trace every ray of one tile
+	 * @return the tile's statistics
+	 */
+	TileStats trace (int x0, int y0) {
+		long start = System.nanoTime();
+		int w = Math.min(tile, width - x0), h = Math.min(tile, height - y0), n = w * h;
+		TileStats stats = new TileStats(x0, y0, w, h);
+		KerrBatch batch = new KerrBatch(n, 1.0, a, 0.0, duration, step, integrator);
+		double sinI = sin(inclination), cosI = cos(inclination);
+		for (int j = 0; j < h; j++) {
+			for (int i = 0; i < w; i++) {
+				double alpha = alpha(x0 + i), beta = beta(y0 + j);
+				batch.set(j * w + i, 1.0, - alpha * sinI, beta * beta + cosI * cosI * (alpha * alpha - a * a), observer, inclination);
+				batch.setDirection(j * w + i, -1.0, - beta);  // rays aimed above the centre head towards the north pole
+			}
+		}
+		byte[] result = new byte[n];
+		double[] previous = new double[n];
+		batch.start();
+		for (int k = 0; k < n; k++) {
+			result[k] = (byte)Outcome.UNRESOLVED.ordinal();
+			previous[k] = batch.getTheta(k);
+		}
+		boolean more = true;
+		while (more) {
+			more = batch.step();
+			stats.batchSteps++;
+			for (int k = 0; k < n; k++) {
+				if (result[k] != Outcome.UNRESOLVED.ordinal()) {
+					continue;
+				}
+				if (! batch.isActive(k)) {  // masked by the batch at the horizon
+					result[k] = (byte)Outcome.CAPTURED.ordinal();
+					continue;
+				}
+				double r = batch.getR(k), th = batch.getTheta(k);
+				if ((th - 0.5 * PI) * (previous[k] - 0.5 * PI) <= 0.0 && r >= diskIn && r <= diskOut) {
+					result[k] = (byte)Outcome.DISK.ordinal();
+					radii[index(x0, y0, w, k)] = (float)r;
+					batch.deactivate(k);
+				} else if (r > observer && batch.getRDot(k) > 0.0) {
+					result[k] = (byte)Outcome.ESCAPED.ordinal();
+					thetas[index(x0, y0, w, k)] = (float)th;
+					phis[index(x0, y0, w, k)] = (float)batch.getPhi(k);
+					batch.deactivate(k);
+				}
+				previous[k] = th;
+			}
+			more = more && batch.getActive() > 0;
+		}
+		for (int k = 0; k < n; k++) {
+			outcomes[index(x0, y0, w, k)] = result[k];
+			stats.outcomes[result[k]]++;
+			stats.raySteps += batch.getSteps(k);
+		}
+		stats.nanos = System.nanoTime() - start;
+		return stats;
+	}
+	
+	private int index (int x0, int y0, int w, int k) {
+		return (y0 + k / w) * width + x0 + k % w;
+	}
+	
+	/**
+	 * Trace the whole image
+	 * @param pool the pool to run on, its parallelism sets the number of cores used
+	 * @return statistics for each tile, in row-major tile order
+	 */
+	public TileStats[] render (ForkJoinPool pool) {
+		List<int[]> origins = new ArrayList<int[]>();
+		for (int y = 0; y < height; y += tile) {
+			for (int x = 0; x < width; x += tile) {
+				origins.add(new int[] { x, y });
+			}
+		}
+		TileStats[] stats = new TileStats[origins.size()];
+		pool.invoke(new Tiles(origins, stats, 0, stats.length));
+		return stats;
+	}
+	
+	/**
+	 * Recursively halves the tile range so idle workers can steal the larger pieces
+	 */
+	private final class Tiles extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final List<int[]> origins;
+		
+		private final TileStats[] stats;
+		
+		private final int from, to;
+		
+		Tiles (List<int[]> origins, TileStats[] stats, int from, int to) {
+			this.origins = origins;
+			this.stats = stats;
+			this.from = from;
+			this.to = to;
+		}
+		
+		@Override
+		protected void compute () {
+			if (to - from == 1) {
+				stats[from] = trace(origins.get(from)[0], origins.get(from)[1]);
+			} else if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Tiles(origins, stats, from, middle), new Tiles(origins, stats, middle, to));
+			}
+		}
+	}
+	
+	/**
+	 * @return the outcome of the ray through a pixel
+	 */
+	public Outcome getOutcome (int x, int y) {
+		return Outcome.values()[outcomes[y * width + x]];
+	}
+	
+	/**
+	 * @return the radius at which the ray through a pixel hit the disk, zero if it did not
+	 */
+	public double getDiskRadius (int x, int y) {
+		return radii[y * width + x];
+	}
+	
+	/**
+	 * False colour image: black for captured, grey for unresolved, the disk shaded by radius, and escaped rays on a chequered celestial sphere
+	 * which shows the lensing
+	 * @return the rendered image
+	 */
+	public BufferedImage image () {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int i = y * width + x, rgb;
+				switch (Outcome.values()[outcomes[i]]) {
+					case DISK:
+						double brightness = pow(diskIn / radii[i], 0.75);
+						rgb = ((int)(255 * brightness) << 16) | ((int)(170 * brightness) << 8) | (int)(60 * brightness);
+						break;
+					case ESCAPED:
+						boolean odd = (((int)floor(thetas[i] * 18.0 / PI) + (int)floor(phis[i] * 18.0 / PI)) & 1) != 0;
+						rgb = odd ? 0x304070 : 0x101828;
+						break;
+					case UNRESOLVED:
+						rgb = 0x404040;
+						break;
+					default:
+						rgb = 0;
+				}
+				image.setRGB(x, y, rgb);
+			}
+		}
+		return image;
+	}
+	
+	/**
+	 * Write the raw result as little-endian float32, row-major from the top left: the disk radius for DISK, 0 for ESCAPED, -1 for CAPTURED and
+	 * NaN for UNRESOLVED
+	 * @param path the file to write
+	 * @throws IOException
+	 */
+	public void writeRaw (File path) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		try {
+			for (int i = 0; i < outcomes.length; i++) {
+				float value;
+				switch (Outcome.values()[outcomes[i]]) {
+					case DISK: value = radii[i]; break;
+					case ESCAPED: value = 0.0f; break;
+					case CAPTURED: value = -1.0f; break;
+					default: value = Float.NaN; break;
+				}
+				output.writeInt(Integer.reverseBytes(Float.floatToIntBits(value)));
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * @return the prograde innermost stable circular orbit for spin a and M = 1, the usual inner edge of a thin disk
+	 */
+	static double isco (double a) {
+		double z1 = 1.0 + Math.cbrt(1.0 - a * a) * (Math.cbrt(1.0 + a) + Math.cbrt(1.0 - a));
+		double z2 = sqrt(3.0 * a * a + z1 * z1);
+		return 3.0 + z2 - Math.signum(a) * sqrt((3.0 - z1) * (3.0 + z1 + 2.0 * z2));
+	}
+	
+	/**
+	 * Render an image, print one line of statistics per tile to stdout
+	 * 
+	 * @param args options, each followed by its value:
+	 * <pre>
+	 * -a &lt;spin&gt;                  default 0.9
+	 * -r &lt;observer radius&gt;       default 50
+	 * -i &lt;inclination&gt;           degrees from the spin axis, default 80
+	 * -fov &lt;angle&gt;               degrees across the image, default 30
+	 * -size &lt;width&gt;x&lt;height&gt;     pixels, default 400x300
+	 * -disk &lt;in&gt;,&lt;out&gt;           disk radii, default ISCO to 20, "none" for no disk
+	 * -time &lt;mino&gt;               Mino time before a ray is unresolved, default 10
+	 * -step &lt;mino&gt;               default 0.0004
+	 * -integrator &lt;name&gt;         default BM4
+	 * -tile &lt;pixels&gt;             default 16
+	 * -threads &lt;n&gt;               default the number of processors
+	 * -png &lt;file&gt;                default shadow.png
+	 * -raw &lt;file&gt;                optional float32 output, see writeRaw()
+	 * </pre>
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		double a = 0.9, observer = 50.0, inclination = 80.0, fov = 30.0, time = 10.0, step = 0.0004;
+		int width = 400, height = 300, tile = 16, threads = Runtime.getRuntime().availableProcessors();
+		Integrator integrator = Integrator.BM4;
+		String disk = null, png = "shadow.png", raw = null;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String option = args[i], value = args[i + 1];
+			if ("-a".equals(option)) {
+				a = Double.parseDouble(value);
+			} else if ("-r".equals(option)) {
+				observer = Double.parseDouble(value);
+			} else if ("-i".equals(option)) {
+				inclination = Double.parseDouble(value);
+			} else if ("-fov".equals(option)) {
+				fov = Double.parseDouble(value);
+			} else if ("-size".equals(option)) {
+				String[] wh = value.split("x");
+				width = Integer.parseInt(wh[0]);
+				height = Integer.parseInt(wh[1]);
+			} else if ("-disk".equals(option)) {
+				disk = value;
+			} else if ("-time".equals(option)) {
+				time = Double.parseDouble(value);
+			} else if ("-step".equals(option)) {
+				step = Double.parseDouble(value);
+			} else if ("-integrator".equals(option)) {
+				integrator = Integrator.valueOf(value);
+			} else if ("-tile".equals(option)) {
+				tile = Integer.parseInt(value);
+			} else if ("-threads".equals(option)) {
+				threads = Integer.parseInt(value);
+			} else if ("-png".equals(option)) {
+				png = value;
+			} else if ("-raw".equals(option)) {
+				raw = value;
+			} else {
+				System.err.println("Unknown option " + option);
+				System.exit(1);
+			}
+		}
+		double diskIn = isco(a), diskOut = 20.0;
+		if ("none".equals(disk)) {
+			diskOut = 0.0;
+		} else if (disk != null) {
+			String[] io = disk.split(",");
+			diskIn = Double.parseDouble(io[0]);
+			diskOut = Double.parseDouble(io[1]);
+		}
+		RayTracer tracer = new RayTracer(a, observer, toRadians(inclination), toRadians(fov), width, height, diskIn, diskOut, time, step, integrator, tile);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		TileStats[] stats;
+		try {
+			stats = tracer.render(pool);
+		} finally {
+			pool.shutdown();
+		}
+		System.err.println("Traced " + width * height + " rays in " + (System.nanoTime() - start) / 1.0e9 + " s on " + threads + " threads");
+		PrintStream output = System.out;
+		for (TileStats tileStats : stats) {
+			output.println(tileStats.toJson());
+		}
+		ImageIO.write(tracer.image(), "png", new File(png));
+		if (raw != null) {
+			tracer.writeRaw(new File(raw));
+		}
+	}
+}
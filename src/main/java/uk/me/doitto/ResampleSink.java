@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * @author ian
+ * <p>
+ * Dense output: resamples the trajectory at uniform spacing in coordinate time t or proper time tau, interpolating between integrator steps,
+ * so that the output rate no longer follows the Mino time step through periapsis and near the horizon.
+ * <p>
+ * The velocities in each record are derivatives with respect to tau, so t, r, th and ph are interpolated by cubic Hermite polynomials in tau through
+ * their values and derivatives at the neighbouring steps, and the interpolated velocities are the derivatives of those polynomials. Mino time uses its
+ * own derivative 1 / Sigma, the errors are interpolated linearly, and x, y, z are recomputed from r, th and ph. Resampling in t first solves the
+ * t polynomial for tau by Newton's method. Samples fall at start + k * spacing, the start being the first record's value.
+ */
+public final class ResampleSink implements TrajectorySink, Flushable {
+	
+	private static final int NEWTON_ITERATIONS = 8;
+	
+	private static final int[] HERMITE = { T, R, TH, PH }, SLOPES = { TDOT, RDOT, THDOT, PHDOT }, LINEAR = { E, ER, ETH, EC };
+	
+	private final TrajectorySink downstream;
+	
+	private final double a2;
+	
+	private final int field;
+	
+	private final double spacing;
+	
+	private final double[] previous = new double[FIELDS], sample = new double[FIELDS];
+	
+	private boolean started;
+	
+	private double start;
+	
+	private long k;
+	
+	/**
+	 * @param downstream the receiver of the resampled records, closed when this sink is closed
+	 * @param spin the black hole spin a, for Sigma and the Cartesian coordinates
+	 * @param field TrajectorySink.T or TrajectorySink.TAU
+	 * @param spacing the interval between output records in that field
+	 */
+	public ResampleSink (TrajectorySink downstream, double spin, int field, double spacing) {
+		if (field != T && field != TAU) {
+			throw new IllegalArgumentException("can only resample in t or tau, not " + KEYS[field]);
+		}
+		if (! (spacing > 0.0)) {
+			throw new IllegalArgumentException("spacing must be positive, not " + spacing);
+		}
+		this.downstream = downstream;
+		this.a2 = spin * spin;
+		this.field = field;
+		this.spacing = spacing;
+	}
+	
+	@Override
+	public void write (double[] record) {
+		if (! started) {
+			started = true;
+			start = record[field];
+			downstream.write(record);
+			k = 1;
+		} else {
+			double next = start + k * spacing;
+			while (next <= record[field]) {
+				interpolate(record, next);
+				downstream.write(sample);
+				next = start + ++k * spacing;
+			}
+		}
+		System.arraycopy(record, 0, previous, 0, FIELDS);
+	}
+	
+	/**
+	 * Fill the sample at a value of the resampled field between the previous record and this one
+	 */
+	private void interpolate (double[] record, double target) {
+		double tau0 = previous[TAU], h = record[TAU] - tau0;
+		double u;
+		if (field == TAU) {
+			u = (target - tau0) / h;
+		} else {
+			u = (target - previous[T]) / (record[T] - previous[T]);  // t is monotonic in tau outside the horizon
+			for (int i = 0; i < NEWTON_ITERATIONS; i++) {
+				double du = (hermite(previous[T], previous[TDOT], record[T], record[TDOT], h, u) - target) / (h * slope(previous[T], previous[TDOT], record[T], record[TDOT], h, u));
+				u = Math.min(1.0, Math.max(0.0, u - du));
+				if (Math.abs(du) < 1.0e-15) {
+					break;
+				}
+			}
+		}
+		sample[TAU] = tau0 + u * h;
+		for (int i = 0; i < HERMITE.length; i++) {
+			int p = HERMITE[i], m = SLOPES[i];
+			sample[p] = hermite(previous[p], previous[m], record[p], record[m], h, u);
+			sample[m] = slope(previous[p], previous[m], record[p], record[m], h, u);
+		}
+		sample[field] = target;
+		sample[MINO] = hermite(previous[MINO], 1.0 / sigma(previous), record[MINO], 1.0 / sigma(record), h, u);
+		for (int f : LINEAR) {
+			sample[f] = previous[f] + u * (record[f] - previous[f]);
+		}
+		double ra = Math.sqrt(sample[R] * sample[R] + a2), sth = Math.sin(sample[TH]);
+		sample[X] = ra * sth * Math.cos(sample[PH]);
+		sample[Y] = ra * sth * Math.sin(sample[PH]);
+		sample[Z] = sample[R] * Math.cos(sample[TH]);
+	}
+	
+	private double sigma (double[] record) {
+		double cth = Math.cos(record[TH]);
+		return record[R] * record[R] + a2 * cth * cth;
+	}
+	
+	/**
+	 * @return the cubic through p0 with slope m0 at u = 0, and p1 with slope m1 at u = 1, slopes per unit tau over an interval h
+	 */
+	private static double hermite (double p0, double m0, double p1, double m1, double h, double u) {
+		double u2 = u * u, u3 = u2 * u;
+		return (2.0 * u3 - 3.0 * u2 + 1.0) * p0 + (u3 - 2.0 * u2 + u) * h * m0 + (3.0 * u2 - 2.0 * u3) * p1 + (u3 - u2) * h * m1;
+	}
+	
+	/**
+	 * @return the derivative of hermite() with respect to tau
+	 */
+	private static double slope (double p0, double m0, double p1, double m1, double h, double u) {
+		double u2 = u * u;
+		return (6.0 * u2 - 6.0 * u) * (p0 - p1) / h + (3.0 * u2 - 4.0 * u + 1.0) * m0 + (3.0 * u2 - 2.0 * u) * m1;
+	}
+	
+	@Override
+	public void flush () throws IOException {
+		if (downstream instanceof Flushable) {
+			((Flushable)downstream).flush();
+		}
+	}
+	
+	@Override
+	public void close () {
+		downstream.close();
+	}
+}
@@ -0,0 +1,353 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import uk.me.doitto.KerrMotion.Termination;
+
+/**
+ * @author ian
+ * <p>
+ * Persistent, size-bounded store of finished integrations, keyed by a SHA-256 hash of everything that determines the result:
+ * the parameters M, a, mu, E, Lz, C, r, theta, time, step, the integrator, and the bytes of the classes that do the integrating.
+ * Rebuilding the integrator therefore invalidates every entry without any version bookkeeping.
+ * <p>
+ * Each entry is a summary file &lt;key&gt;.sum, big-endian:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  double eCum
+ *  16  long   steps
+ *  24  utf    termination
+ *      double mino, tau, t, r, theta, phi, tDot, rDot, thetaDot, phiDot, eCum, the final state as in KerrMotion.getState()
+ * </pre>
+ * and optionally the trajectory &lt;key&gt;.bin in the {@link BinarySink} format.
+ * Files are written under temporary names and renamed into place, trajectory first, so other processes sharing the directory never see a partial entry;
+ * temporary files abandoned by a crashed process are removed once they are a day old.
+ * <p>
+ * Entries are evicted least recently used first once the directory grows past its limit; the modification time of the summary records the last use,
+ * so the order survives between runs.
+ */
+public final class ResultCache {
+	
+	public static final int MAGIC = 0x4b524553;  // "KRES"
+	
+	public static final int VERSION = 1;
+	
+	static final String SUMMARY = ".sum", TRAJECTORY = ".bin", TEMPORARY = ".tmp";
+	
+	/**
+	 * Temporary files older than this, in milliseconds, were left by a process which died and are removed when a cache is opened
+	 */
+	static final long STALE = 24L * 60 * 60 * 1000;
+	
+	private static final String[] CODE = { "KerrMotion.class", "Symplectic.class", "Integrator.class" };
+	
+	private static byte[] codeVersion;
+	
+	private final File directory;
+	
+	private final long maxBytes;
+	
+	private final LinkedHashMap<String, Long> sizes = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	
+	private long totalBytes;
+	
+	/**
+	 * A cached result
+	 */
+	public static final class Entry {
+		
+		final double eCum;
+		
+		final long steps;
+		
+		final Termination termination;
+		
+		final double[] state;
+		
+		final BinaryTrajectory trajectory;
+		
+		Entry (double eCum, long steps, Termination termination, double[] state, BinaryTrajectory trajectory) {
+			this.eCum = eCum;
+			this.steps = steps;
+			this.termination = termination;
+			this.state = state;
+			this.trajectory = trajectory;
+		}
+		
+		public double getECum () {
+			return eCum;
+		}
+		
+		public long getSteps () {
+			return steps;
+		}
+		
+		public Termination getTermination () {
+			return termination;
+		}
+		
+		/**
+		 * @return the final state, see KerrMotion.getState()
+		 */
+		public double[] getState () {
+			return state.clone();
+		}
+		
+		/**
+		 * @return the trajectory, or null if it was not requested
+		 */
+		public BinaryTrajectory getTrajectory () {
+			return trajectory;
+		}
+	}
+	
+	/**
+	 * Open (or create) a cache, indexing any entries already there by last use
+	 * @param directory where to keep the entries
+	 * @param maxBytes the size above which entries are evicted
+	 * @throws IOException if the directory cannot be created
+	 */
+	public ResultCache (File directory, long maxBytes) throws IOException {
+		if (! directory.isDirectory() && ! directory.mkdirs()) {
+			throw new IOException("Cannot create " + directory);
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+		File[] summaries = directory.listFiles();
+		long stale = System.currentTimeMillis() - STALE;
+		for (File file : summaries) {
+			if (file.getName().endsWith(TEMPORARY) && file.lastModified() < stale) {
+				file.delete();
+			}
+		}
+		Arrays.sort(summaries, new Comparator<File>() {
+			@Override
+			public int compare (File a, File b) {
+				return Long.compare(a.lastModified(), b.lastModified());
+			}
+		});
+		for (File summary : summaries) {
+			String name = summary.getName();
+			if (name.endsWith(SUMMARY)) {
+				String key = name.substring(0, name.length() - SUMMARY.length());
+				long size = summary.length() + new File(directory, key + TRAJECTORY).length();
+				sizes.put(key, size);
+				totalBytes += size;
+			}
+		}
+	}
+	
+	/**
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step
+	 * @param integrator the integrator
+	 * @return the cache key, 64 hex digits
+	 */
+	public static String key (double[] parameters, Integrator integrator) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(VERSION);
+			for (double p : parameters) {
+				output.writeLong(Double.doubleToLongBits(p + 0.0));  // +0.0 folds -0.0 into 0.0
+			}
+			output.writeUTF(integrator.name());
+			output.write(codeVersion());
+			output.close();
+			StringBuilder hex = new StringBuilder(64);
+			for (byte b : digest.digest(bytes.toByteArray())) {
+				hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException | IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * @return the SHA-256 digest of the integrating classes as loaded
+	 */
+	static synchronized byte[] codeVersion () throws NoSuchAlgorithmException, IOException {
+		if (codeVersion == null) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[8192];
+			for (String name : CODE) {
+				InputStream input = ResultCache.class.getResourceAsStream(name);
+				if (input == null) {
+					throw new IOException("Cannot read " + name);
+				}
+				try {
+					for (int n = input.read(buffer); n >= 0; n = input.read(buffer)) {
+						digest.update(buffer, 0, n);
+					}
+				} finally {
+					input.close();
+				}
+			}
+			codeVersion = digest.digest();
+		}
+		return codeVersion;
+	}
+	
+	/**
+	 * Look up a result, and mark it as used
+	 * @param key from key()
+	 * @param trajectory whether the trajectory is needed, if so an entry without one is a miss
+	 * @return the entry, or null on a miss
+	 */
+	public synchronized Entry get (String key, boolean trajectory) {
+		File summary = new File(directory, key + SUMMARY);
+		File binary = new File(directory, key + TRAJECTORY);
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(summary)));
+			Entry entry;
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+					return null;
+				}
+				double eCum = input.readDouble();
+				long steps = input.readLong();
+				Termination termination = Termination.valueOf(input.readUTF());
+				double[] state = new double[KerrMotion.STATE_SIZE];
+				for (int i = 0; i < state.length; i++) {
+					state[i] = input.readDouble();
+				}
+				entry = new Entry(eCum, steps, termination, state, trajectory ? new BinaryTrajectory(binary) : null);  // mapped now, so eviction cannot pull it away
+			} finally {
+				input.close();
+			}
+			summary.setLastModified(System.currentTimeMillis());
+			if (sizes.get(key) == null) {  // written by another process, get() has already moved any known key to the most recently used end
+				long size = summary.length() + binary.length();
+				sizes.put(key, size);
+				totalBytes += size;
+			}
+			return entry;
+		} catch (IOException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * @return a fresh file in the cache directory for a trajectory to be written to, and later passed to put(); the caller deletes it if the run fails
+	 * @throws IOException
+	 */
+	public File temporaryFile () throws IOException {
+		return File.createTempFile("trajectory", TEMPORARY, directory);
+	}
+	
+	/**
+	 * Store the result of a finished integration, then evict the least recently used entries until the cache fits its limit.
+	 * Cancelled integrations are not stored.
+	 * @param key from key()
+	 * @param bh the integration, after simulate() has returned
+	 * @param eCum the cumulative error returned by simulate()
+	 * @param trajectory a closed BinarySink file from temporaryFile(), or null to store the summary alone
+	 * @throws IOException
+	 */
+	public synchronized void put (String key, KerrMotion bh, double eCum, File trajectory) throws IOException {
+		Termination termination = bh.getTermination();
+		if (termination == Termination.CANCELLED) {
+			if (trajectory != null) {
+				trajectory.delete();
+			}
+			return;
+		}
+		double[] state = new double[KerrMotion.STATE_SIZE];
+		long steps = bh.getState(state);
+		File summary = new File(directory, key + SUMMARY);
+		File binary = new File(directory, key + TRAJECTORY);
+		if (trajectory != null) {
+			Files.move(trajectory.toPath(), binary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		File temporary = File.createTempFile("summary", TEMPORARY, directory);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			try {
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeDouble(eCum);
+				output.writeLong(steps);
+				output.writeUTF(termination.name());
+				for (double s : state) {
+					output.writeDouble(s);
+				}
+			} finally {
+				output.close();
+			}
+			Files.move(temporary.toPath(), summary.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporary.delete();  // already renamed unless writing failed
+		}
+		Long previous = sizes.remove(key);
+		if (previous != null) {
+			totalBytes -= previous;
+		}
+		long size = summary.length() + binary.length();
+		sizes.put(key, size);
+		totalBytes += size;
+		evict();
+	}
+	
+	/**
+	 * Remove least recently used entries, never the most recent, until the total size is within the limit
+	 */
+	private void evict () {
+		Iterator<Map.Entry<String, Long>> entries = sizes.entrySet().iterator();
+		while (totalBytes > maxBytes && sizes.size() > 1) {
+			Map.Entry<String, Long> eldest = entries.next();
+			new File(directory, eldest.getKey() + SUMMARY).delete();  // summary first, so no reader finds a summary without its trajectory
+			new File(directory, eldest.getKey() + TRAJECTORY).delete();
+			totalBytes -= eldest.getValue();
+			entries.remove();
+		}
+	}
+	
+	/**
+	 * @return the number of entries
+	 */
+	public synchronized int size () {
+		return sizes.size();
+	}
+	
+	/**
+	 * @return the total size of the entries in bytes
+	 */
+	public synchronized long getBytes () {
+		return totalBytes;
+	}
+}
@@ -0,0 +1,188 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static uk.me.doitto.RingFileSink.CAPACITY_OFFSET;
+import static uk.me.doitto.RingFileSink.FINISHED_OFFSET;
+import static uk.me.doitto.RingFileSink.HEADER_SIZE;
+import static uk.me.doitto.RingFileSink.MAGIC;
+import static uk.me.doitto.RingFileSink.PARAMETERS_OFFSET;
+import static uk.me.doitto.RingFileSink.RECORD_SIZE;
+import static uk.me.doitto.RingFileSink.SEQUENCE_OFFSET;
+import static uk.me.doitto.RingFileSink.VERSION;
+import static uk.me.doitto.TrajectorySink.FIELDS;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * @author ian
+ * <p>
+ * Follows a trajectory being published by a {@link RingFileSink}, possibly in another process.
+ * <p>
+ * The same protocol works from Python, e.g. with numpy:
+ * <pre>
+ * ring = memmap(path, dtype='&lt;f8', mode='r', offset=128).reshape(-1, 17)
+ * header = memmap(path, dtype='&lt;i8', mode='r', shape=(4,))
+ * seq = header[3]; rows = ring[[n % len(ring) for n in range(next, seq)]].copy(); oldest = header[3] - len(ring) + 1
+ * </pre>
+ * keeping only rows for records n &gt;= oldest.
+ * <p>
+ * Like the writer, the reader uses plain loads of the mapped file and relies on the load ordering of x86 (TSO) processors, see {@link RingFileSink}.
+ */
+public final class RingFileReader {
+	
+	private static final int CHUNK = 1024;  // records copied between checks of the sequence
+	
+	private final MappedByteBuffer buffer;
+	
+	private final double[] parameters = new double[10];
+	
+	private final long capacity;
+	
+	private final double[] chunk = new double[CHUNK * FIELDS];
+	
+	private final double[] record = new double[FIELDS];
+	
+	private long next, skipped;
+	
+	private volatile int fence;  // stores to it keep the compiler from reordering the mapped loads either side
+	
+	/**
+	 * Map a ring file, starting from the oldest record still in it
+	 * @param path the file being written
+	 * @throws IOException if the file is not a ring in a supported format
+	 */
+	public RingFileReader (File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(path + ": too short for a ring header");
+			}
+			buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(12) != FIELDS) {
+				throw new IOException(path + ": not a version " + VERSION + " ring file");
+			}
+			capacity = buffer.getLong(CAPACITY_OFFSET);
+			if (channel.size() < HEADER_SIZE + capacity * RECORD_SIZE) {
+				throw new IOException(path + ": too short for " + capacity + " records");
+			}
+			for (int i = 0; i < parameters.length; i++) {
+				parameters[i] = buffer.getDouble(PARAMETERS_OFFSET + 8 * i);
+			}
+		} finally {
+			file.close();
+		}
+	}
+	
+	private long sequence () {
+		long sequence = buffer.getLong(SEQUENCE_OFFSET);
+		fence = 0;
+		return sequence;
+	}
+	
+	/**
+	 * Pass on every record published since the last call, skipping any that were overwritten before they could be read
+	 * @param sink the receiver
+	 * @return the number of records passed on
+	 */
+	public long poll (TrajectorySink sink) {
+		long sequence = sequence();
+		if (next < sequence - capacity) {
+			skipped += sequence - capacity - next;
+			next = sequence - capacity;
+		}
+		long delivered = 0;
+		while (next < sequence) {
+			int n = (int)Math.min(CHUNK, sequence - next);
+			for (int k = 0; k < n; k++) {
+				int offset = HEADER_SIZE + (int)((next + k) % capacity) * RECORD_SIZE;
+				for (int i = 0; i < FIELDS; i++) {
+					chunk[k * FIELDS + i] = buffer.getDouble(offset + 8 * i);
+				}
+			}
+			fence = 0;
+			long oldest = sequence() - capacity + 1;  // older slots may have been rewritten while they were copied
+			for (int k = 0; k < n; k++) {
+				if (next + k >= oldest) {
+					System.arraycopy(chunk, k * FIELDS, record, 0, FIELDS);
+					sink.write(record);
+					delivered++;
+				} else {
+					skipped++;
+				}
+			}
+			next += n;
+		}
+		return delivered;
+	}
+	
+	/**
+	 * @return whether the writer has closed the ring; a final poll() then returns the remaining records
+	 */
+	public boolean isFinished () {
+		return buffer.getInt(FINISHED_OFFSET) != 0;
+	}
+	
+	/**
+	 * @return the number of records missed because this reader fell behind
+	 */
+	public long getSkipped () {
+		return skipped;
+	}
+	
+	/**
+	 * @return M, a, mu, E, Lz, C, r, theta, time, step
+	 */
+	public double[] getParameters () {
+		return parameters.clone();
+	}
+	
+	/**
+	 * Follow a live trajectory, printing it as JSON lines until the writer finishes
+	 * 
+	 * @param args[0] the ring file
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main (String[] args) throws IOException, InterruptedException {
+		if (args.length < 1) {
+			System.err.println("Usage: RingFileReader <ring file>");
+			System.exit(1);
+		}
+		RingFileReader reader = new RingFileReader(new File(args[0]));
+		FastJsonSink sink = FastJsonSink.stdout();
+		boolean finished = false;
+		while (! finished) {
+			finished = reader.isFinished();  // read before polling, so the last records are not missed
+			if (reader.poll(sink) == 0 && ! finished) {
+				sink.flush();
+				Thread.sleep(10);
+			}
+		}
+		sink.close();
+		if (reader.getSkipped() > 0) {
+			System.err.println(reader.getSkipped() + " records skipped");
+		}
+	}
+}
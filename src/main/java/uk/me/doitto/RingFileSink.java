@@ -0,0 +1,138 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * @author ian
+ * <p>
+ * Publishes each step into a fixed-size ring of records in a memory-mapped file, so that any number of local processes can follow the trajectory live
+ * by mapping the same file, without copies, parsing, or any effect on the integration. Put the file on a RAM-backed filesystem such as /dev/shm.
+ * <p>
+ * Layout, all values little-endian:
+ * <pre>
+ *   0  int    MAGIC
+ *   4  int    VERSION
+ *   8  int    HEADER_SIZE, offset of the first slot
+ *  12  int    number of fields per record, TrajectorySink.FIELDS
+ *  16  long   capacity, the number of slots
+ *  24  long   sequence, the number of records published so far
+ *  32  double M, a, mu, E, Lz, C, r, theta, time, step
+ * 112  int    integrator order
+ * 116  int    1 once the integration has finished, otherwise 0
+ * 120  zero padding
+ * 128  slots, each FIELDS doubles in TrajectorySink order; record n is in slot n % capacity
+ * </pre>
+ * The writer stores a record in its slot before advancing the sequence, so a reader copies records below the sequence and then re-reads it:
+ * any record n it copied with n &lt;= sequence - capacity may have been overwritten meanwhile, and is discarded. Readers that fall behind
+ * simply skip to the oldest record still in the ring. See {@link RingFileReader}.
+ * <p>
+ * The mapped stores are plain, so the protocol relies on total store ordering, as on x86: other processors see the record stores before the
+ * sequence store, and the sequence store before the next record's. The volatile field below only keeps the JIT from reordering them.
+ * Weakly ordered processors such as ARM and POWER are not supported.
+ */
+public final class RingFileSink implements TrajectorySink {
+	
+	public static final int MAGIC = 0x52494e47;  // "RING"
+	
+	public static final int VERSION = 1;
+	
+	public static final int HEADER_SIZE = 128;
+	
+	public static final int RECORD_SIZE = FIELDS * 8;
+	
+	static final int CAPACITY_OFFSET = 16, SEQUENCE_OFFSET = 24, PARAMETERS_OFFSET = 32, ORDER_OFFSET = 112, FINISHED_OFFSET = 116;
+	
+	private final RandomAccessFile file;
+	
+	private final MappedByteBuffer buffer;
+	
+	private final long capacity;
+	
+	private long sequence;
+	
+	private int slot;
+	
+	private volatile long published;  // storing it keeps the compiler from moving the record stores past the sequence store
+	
+	/**
+	 * Create (or overwrite) a ring file and write its header
+	 * @param path the file to map
+	 * @param capacity the number of records it holds
+	 * @param parameters M, a, mu, E, Lz, C, r, theta, time, step
+	 * @param order the integrator order
+	 * @throws IOException
+	 */
+	public RingFileSink (File path, int capacity, double[] parameters, int order) throws IOException {
+		if (parameters.length != 10) {
+			throw new IllegalArgumentException("expected 10 parameters, got " + parameters.length);
+		}
+		this.capacity = capacity;
+		file = new RandomAccessFile(path, "rw");
+		file.setLength(0);
+		long size = HEADER_SIZE + (long)capacity * RECORD_SIZE;
+		if (size > Integer.MAX_VALUE) {
+			file.close();
+			throw new IOException(capacity + " records is too many to map at once");
+		}
+		buffer = file.getChannel().map(MapMode.READ_WRITE, 0, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, HEADER_SIZE);
+		buffer.putInt(12, FIELDS);
+		buffer.putLong(CAPACITY_OFFSET, capacity);
+		buffer.putLong(SEQUENCE_OFFSET, 0L);
+		for (int i = 0; i < parameters.length; i++) {
+			buffer.putDouble(PARAMETERS_OFFSET + 8 * i, parameters[i]);
+		}
+		buffer.putInt(ORDER_OFFSET, order);
+		buffer.putInt(FINISHED_OFFSET, 0);
+	}
+	
+	@Override
+	public void write (double[] record) {
+		int offset = HEADER_SIZE + slot * RECORD_SIZE;
+		for (int i = 0; i < FIELDS; i++) {
+			buffer.putDouble(offset + 8 * i, record[i]);
+		}
+		if (++slot == capacity) {
+			slot = 0;
+		}
+		published = ++sequence;
+		buffer.putLong(SEQUENCE_OFFSET, sequence);
+	}
+	
+	/**
+	 * Mark the trajectory finished and unmap the file; readers keep their own mappings
+	 */
+	@Override
+	public void close () {
+		published = sequence;
+		buffer.putInt(FINISHED_OFFSET, 1);
+		try {
+			file.close();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
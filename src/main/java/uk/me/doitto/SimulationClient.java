@@ -0,0 +1,162 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.Socket;
+
+/**
+ * @author ian
+ * <p>
+ * Command line client for {@link SimulationServer}
+ */
+public final class SimulationClient {
+	
+	private SimulationClient () {
+	}
+	
+	private static String readLine (InputStream input) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c = input.read();
+		while (c >= 0 && c != '\n') {
+			line.append((char)c);
+			c = input.read();
+		}
+		return c < 0 && line.length() == 0 ? null : line.toString();
+	}
+	
+	private static String ic (String path) throws IOException {
+		Reader reader = path == null || "-".equals(path) ? new InputStreamReader(System.in) : new FileReader(new File(path));
+		return KerrMotion.readJson(reader).toJSONString();
+	}
+	
+	/**
+	 * Send a command, and pass the reply on: trajectory lines to stdout, everything else to stderr
+	 * @return the process exit status, non-zero if the server reported an error
+	 */
+	static int send (int port, String command) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		try {
+			socket.getOutputStream().write((command + "\n").getBytes(SimulationServer.ASCII));
+			socket.getOutputStream().flush();
+			InputStream input = socket.getInputStream();
+			String first = readLine(input);
+			if (first == null) {
+				System.err.println("No reply");
+				return 2;
+			}
+			if (! first.startsWith("JOB ")) {
+				System.out.println(first);
+				copy(input, new FileOutputStream(FileDescriptor.out));
+				return first.startsWith("ERROR") ? 1 : 0;
+			}
+			System.err.println(first);
+			if (command.startsWith("RUN ")) {  // the trajectory, then the summary
+				return copyTrajectory(input);
+			}
+			String end = readLine(input);
+			System.err.println(end);
+			return end != null && end.startsWith("END ") ? 0 : 1;
+		} finally {
+			socket.close();
+		}
+	}
+	
+	private static void copy (InputStream input, OutputStream output) throws IOException {
+		byte[] buffer = new byte[1 << 16];
+		int n = input.read(buffer);
+		while (n >= 0) {
+			output.write(buffer, 0, n);
+			n = input.read(buffer);
+		}
+		output.flush();
+	}
+	
+	/**
+	 * Copy everything up to the "END" or "ERROR" line to stdout in large blocks, the trajectory lines all start with '{'
+	 */
+	private static int copyTrajectory (InputStream input) throws IOException {
+		OutputStream output = new FileOutputStream(FileDescriptor.out);
+		byte[] buffer = new byte[1 << 16];
+		boolean lineStart = true;
+		int n = input.read(buffer);
+		while (n >= 0) {
+			for (int i = 0; i < n; i++) {
+				if (lineStart && buffer[i] == 'E') {
+					output.write(buffer, 0, i);
+					output.flush();
+					StringBuilder end = new StringBuilder(new String(buffer, i, n - i, SimulationServer.ASCII));
+					String rest = readLine(input);
+					if (rest != null) {
+						end.append(rest);
+					}
+					String last = end.toString().trim();  // END, or ERROR if the job failed
+					System.err.println(last);
+					return last.startsWith("END ") ? 0 : 1;
+				}
+				lineStart = buffer[i] == '\n';
+			}
+			output.write(buffer, 0, n);
+			n = input.read(buffer);
+		}
+		output.flush();
+		System.err.println("Connection closed before the end of the trajectory");
+		return 1;
+	}
+	
+	/**
+	 * @param args [-port &lt;port&gt;] followed by one of
+	 * <pre>
+	 * run [ic.json | -]          stream the trajectory to stdout, as KerrMotion would write it
+	 * file &lt;path&gt; [ic.json | -]  have the server write the trajectory to a file, path being relative to its output directory
+	 * cancel &lt;id&gt;
+	 * jobs
+	 * </pre>
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		int port = SimulationServer.DEFAULT_PORT, i = 0;
+		if (args.length > 1 && "-port".equals(args[0])) {
+			port = Integer.parseInt(args[1]);
+			i = 2;
+		}
+		String command = args.length > i ? args[i] : "";
+		String request;
+		if ("run".equals(command)) {
+			request = "RUN " + ic(args.length > i + 1 ? args[i + 1] : null);
+		} else if ("file".equals(command) && args.length > i + 1) {
+			request = "FILE " + args[i + 1] + " " + ic(args.length > i + 2 ? args[i + 2] : null);
+		} else if ("cancel".equals(command) && args.length > i + 1) {
+			request = "CANCEL " + args[i + 1];
+		} else if ("jobs".equals(command)) {
+			request = "JOBS";
+		} else {
+			System.err.println("Usage: SimulationClient [-port <port>] run [ic.json | -] | file <path> [ic.json | -] | cancel <id> | jobs");
+			System.exit(1);
+			return;
+		}
+		System.exit(send(port, request));
+	}
+}
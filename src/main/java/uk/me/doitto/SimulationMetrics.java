@@ -0,0 +1,172 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * @author ian
+ * <p>
+ * Instrumentation of {@link KerrMotion#simulate()}, switched on with -Duk.me.doitto.metrics=true.
+ * <p>
+ * The switch is a static final, so when it is off the JIT removes the instrumentation from the loop altogether. When it is on, each simulation
+ * samples its state every -Duk.me.doitto.metrics.interval steps (default 10000) into the shared instance, which is registered with the platform
+ * MBean server as {@value #NAME} on first use. If the JFR event classes were built (on JDK 11 or later) and are on the class path, every sample is
+ * also emitted as a uk.me.doitto.Sample event.
+ */
+public final class SimulationMetrics implements SimulationMetricsMXBean {
+	
+	static final boolean ENABLED = Boolean.getBoolean("uk.me.doitto.metrics");
+	
+	static final long INTERVAL = Math.max(1L, Long.getLong("uk.me.doitto.metrics.interval", 10000L));
+	
+	public static final String NAME = "uk.me.doitto:type=SimulationMetrics";
+	
+	/**
+	 * Receives every sample, implemented by the JFR event writer
+	 */
+	interface Recorder {
+		void sample (int order, double stepRate, double r, double e, double eR, double eTh);
+	}
+	
+	private static final class Holder {  // initialised on the first call to get(), so nothing is loaded or registered while metrics are off
+		static final SimulationMetrics INSTANCE = create();
+	}
+	
+	private final Recorder recorder;
+	
+	private final AtomicLong started = new AtomicLong(), completed = new AtomicLong(), steps = new AtomicLong(), intermediateUpdates = new AtomicLong(),
+		forceEvaluations = new AtomicLong();
+	
+	private volatile double stepRate, r, e, eR, eTh;
+	
+	private volatile int order;
+	
+	SimulationMetrics (Recorder recorder) {
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @return the process-wide instance
+	 */
+	static SimulationMetrics get () {
+		return Holder.INSTANCE;
+	}
+	
+	private static SimulationMetrics create () {
+		Recorder recorder = null;
+		try {
+			recorder = (Recorder)Class.forName("uk.me.doitto.JfrRecorder").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {  // not built, or no JFR in this JVM
+		}
+		SimulationMetrics metrics = new SimulationMetrics(recorder);
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(NAME));
+		} catch (JMException e) {
+			throw new RuntimeException(e);
+		}
+		return metrics;
+	}
+	
+	void started () {
+		started.incrementAndGet();
+		intermediateUpdates.incrementAndGet();  // initialise()
+	}
+	
+	void completed () {
+		completed.incrementAndGet();
+	}
+	
+	/**
+	 * Accumulate the work done since the caller's previous sample and update the gauges
+	 * @param integrator the caller's integrator
+	 * @param stepsTaken steps since the previous sample
+	 * @param nanos wall time since the previous sample
+	 */
+	void sample (Integrator integrator, long stepsTaken, long nanos, double r, double e, double eR, double eTh) {
+		steps.addAndGet(stepsTaken);
+		intermediateUpdates.addAndGet(stepsTaken * integrator.getDrifts());
+		forceEvaluations.addAndGet(stepsTaken * integrator.getForceEvaluations());
+		stepRate = nanos > 0 ? stepsTaken * 1.0e9 / nanos : 0.0;
+		this.r = r;
+		this.e = e;
+		this.eR = eR;
+		this.eTh = eTh;
+		order = integrator.getOrder();
+		if (recorder != null) {
+			recorder.sample(order, stepRate, r, e, eR, eTh);
+		}
+	}
+	
+	@Override
+	public long getSimulationsStarted () {
+		return started.get();
+	}
+	
+	@Override
+	public long getSimulationsCompleted () {
+		return completed.get();
+	}
+	
+	@Override
+	public long getSteps () {
+		return steps.get();
+	}
+	
+	@Override
+	public long getIntermediateUpdates () {
+		return intermediateUpdates.get();
+	}
+	
+	@Override
+	public long getForceEvaluations () {
+		return forceEvaluations.get();
+	}
+	
+	@Override
+	public double getStepRate () {
+		return stepRate;
+	}
+	
+	@Override
+	public double getRadius () {
+		return r;
+	}
+	
+	@Override
+	public double getError () {
+		return e;
+	}
+	
+	@Override
+	public double getRadialError () {
+		return eR;
+	}
+	
+	@Override
+	public double getPolarError () {
+		return eTh;
+	}
+	
+	@Override
+	public int getIntegratorOrder () {
+		return order;
+	}
+}
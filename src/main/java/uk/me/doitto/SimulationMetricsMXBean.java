@@ -0,0 +1,68 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+/**
+ * @author ian
+ * <p>
+ * Counters and gauges for running simulations, as seen over JMX. Counters are totals over every KerrMotion in the process; gauges hold the values
+ * from the most recent sample of any of them.
+ */
+public interface SimulationMetricsMXBean {
+	
+	long getSimulationsStarted ();
+	
+	long getSimulationsCompleted ();
+	
+	/**
+	 * @return Mino time steps taken
+	 */
+	long getSteps ();
+	
+	/**
+	 * @return recomputations of the intermediate variables, each costing a sin and a cos
+	 */
+	long getIntermediateUpdates ();
+	
+	/**
+	 * @return momentum updates
+	 */
+	long getForceEvaluations ();
+	
+	/**
+	 * @return steps per second over the last sampling interval
+	 */
+	double getStepRate ();
+	
+	double getRadius ();
+	
+	/**
+	 * @return per-step error in dB
+	 */
+	double getError ();
+	
+	/**
+	 * @return radial per-step error in dB
+	 */
+	double getRadialError ();
+	
+	/**
+	 * @return polar per-step error in dB
+	 */
+	double getPolarError ();
+	
+	int getIntegratorOrder ();
+}
@@ -0,0 +1,362 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+/**
+ * @author ian
+ * <p>
+ * A long-lived process which runs simulations on request, so that short runs pay for JVM startup and JIT warm-up only once.
+ * <p>
+ * Listens on a loopback socket; each connection sends one command line:
+ * <pre>
+ * RUN {ic}            the trajectory is streamed back as JSON lines
+ * FILE &lt;path&gt; {ic}    the trajectory is written to a file in the server's output directory
+ * CANCEL &lt;id&gt;         stop a queued or running job
+ * JOBS                list the jobs which have not finished
+ * </pre>
+ * where {ic} is a parameter object, as read by KerrMotion.main, on a single line. RUN and FILE reply "JOB &lt;id&gt;", then (for RUN) the
+ * trajectory, then "END {summary}" when the job finishes, see {@link Summary}. CANCEL replies "OK &lt;id&gt;" or "UNKNOWN &lt;id&gt;", JOBS replies
+ * one "&lt;id&gt; QUEUED|RUNNING" line per job followed by "END". Errors are reported as a single "ERROR &lt;message&gt;" line.
+ * <p>
+ * FILE paths are relative to an output directory chosen when the server starts; absolute paths, and paths which lead outside it, are
+ * refused, as is FILE altogether when the server has no output directory.
+ * <p>
+ * At most a fixed number of jobs run at once, with a bounded queue behind them; a job arriving when the queue is full is refused.
+ */
+public final class SimulationServer implements Closeable {
+	
+	public static final int DEFAULT_PORT = 7474;
+	
+	static final Charset ASCII = Charset.forName("US-ASCII");
+	
+	private final ServerSocket serverSocket;
+	
+	private final ThreadPoolExecutor workers;
+	
+	private final ExecutorService connections = Executors.newCachedThreadPool();
+	
+	private final Map<Integer, Job> jobs = new ConcurrentHashMap<Integer, Job>();
+	
+	private final AtomicInteger ids = new AtomicInteger();
+	
+	private final Path outputDirectory;
+	
+	/**
+	 * A server which refuses FILE commands
+	 * 
+	 * @param port the loopback port to listen on, 0 for any free port
+	 * @param concurrency the most jobs to run at once
+	 * @param queue the most jobs to hold waiting for a worker
+	 * @throws IOException
+	 */
+	public SimulationServer (int port, int concurrency, int queue) throws IOException {
+		this(port, concurrency, queue, null);
+	}
+	
+	/**
+	 * @param port the loopback port to listen on, 0 for any free port
+	 * @param concurrency the most jobs to run at once
+	 * @param queue the most jobs to hold waiting for a worker
+	 * @param outputDirectory the directory FILE paths are resolved against, or null to refuse FILE commands
+	 * @throws IOException if the port cannot be bound or the output directory does not exist
+	 */
+	public SimulationServer (int port, int concurrency, int queue, File outputDirectory) throws IOException {
+		this.outputDirectory = outputDirectory != null ? outputDirectory.toPath().toRealPath() : null;
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		workers = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queue));
+	}
+	
+	/**
+	 * @return the port actually listened on
+	 */
+	public int getPort () {
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * One simulation, owning its connection until it finishes
+	 */
+	private final class Job implements Runnable {
+		
+		final int id;
+		
+		final KerrMotion bh;
+		
+		final Socket socket;
+		
+		final File file;
+		
+		volatile boolean running;
+		
+		Job (int id, KerrMotion bh, Socket socket, File file) {
+			this.id = id;
+			this.bh = bh;
+			this.socket = socket;
+			this.file = file;
+		}
+		
+		@Override
+		public void run () {
+			synchronized (this) {
+				running = true;
+			}
+			try {
+				OutputStream output = socket.getOutputStream();
+				FastJsonSink sink;
+				if (file != null) {
+					sink = new FastJsonSink(new FileOutputStream(file).getChannel());
+				} else {
+					sink = new FastJsonSink(Channels.newChannel(output), 1 << 16, false);
+				}
+				sink.setFields(bh.getFields());
+				Summary summary;
+				try {
+					bh.setSink(sink);
+					summary = new Summary(id, bh, bh.simulate());
+				} catch (RuntimeException e) {  // most likely the client went away while the trajectory was streaming
+					bh.cancel();
+					throw e;
+				} finally {
+					sink.close();
+				}
+				output.write(("END " + summary.toJson() + "\n").getBytes(ASCII));
+				output.flush();
+			} catch (IOException | RuntimeException e) {
+				try {
+					reply(socket, "ERROR " + String.valueOf(e).replace('\n', ' '));
+				} catch (IOException x) {
+					// nobody left to tell
+				}
+			} finally {
+				jobs.remove(id);
+				close(socket);
+			}
+		}
+	}
+	
+	private static void close (Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+		}
+	}
+	
+	/**
+	 * @param path a client's FILE path
+	 * @return the file it names inside the output directory, or null if it names anything else, through symbolic links too
+	 */
+	File outputFile (String path) {
+		if (outputDirectory == null) {
+			return null;
+		}
+		Path relative;
+		try {
+			relative = Paths.get(path);
+		} catch (InvalidPathException e) {
+			return null;
+		}
+		if (relative.isAbsolute()) {
+			return null;
+		}
+		Path resolved = outputDirectory.resolve(relative).normalize();
+		if (! resolved.startsWith(outputDirectory) || resolved.equals(outputDirectory)) {
+			return null;
+		}
+		Path existing = resolved;  // the output directory itself exists, so this stops there at the latest
+		while (! Files.exists(existing, LinkOption.NOFOLLOW_LINKS)) {
+			existing = existing.getParent();
+		}
+		Path real;
+		try {
+			real = existing.toRealPath().resolve(existing.relativize(resolved));
+		} catch (IOException e) {  // a dangling link
+			return null;
+		}
+		return real.startsWith(outputDirectory) && ! real.equals(outputDirectory) ? real.toFile() : null;
+	}
+	
+	private static void reply (Socket socket, String line) throws IOException {
+		OutputStream output = socket.getOutputStream();
+		output.write((line + "\n").getBytes(ASCII));
+		output.flush();
+	}
+	
+	/**
+	 * Read and act on one command
+	 * @param socket the client connection, closed here unless handed over to a job
+	 */
+	void handle (Socket socket) {
+		boolean handedOver = false;
+		try {
+			String line = new BufferedReader(new InputStreamReader(socket.getInputStream(), ASCII)).readLine();
+			if (line == null) {
+				return;
+			}
+			line = line.trim();
+			int space = line.indexOf(' ');
+			String command = space < 0 ? line : line.substring(0, space), rest = space < 0 ? "" : line.substring(space + 1).trim();
+			if ("RUN".equals(command) || "FILE".equals(command)) {
+				File file = null;
+				if ("FILE".equals(command)) {
+					int brace = rest.indexOf('{');
+					if (brace < 1) {
+						reply(socket, "ERROR usage: FILE <path> {ic}");
+						return;
+					}
+					String path = rest.substring(0, brace).trim();
+					file = outputFile(path);
+					if (file == null) {
+						reply(socket, outputDirectory == null ? "ERROR no output directory" : "ERROR path outside the output directory: " + path);
+						return;
+					}
+					rest = rest.substring(brace);
+				}
+				KerrMotion bh;
+				try {
+					bh = KerrMotion.fromJson((JSONObject)JSONValue.parse(rest));
+				} catch (RuntimeException e) {
+					reply(socket, "ERROR bad initial conditions: " + e);
+					return;
+				}
+				Job job = new Job(ids.incrementAndGet(), bh, socket, file);
+				jobs.put(job.id, job);
+				synchronized (job) {  // the job waits for its id to be sent before it writes anything
+					try {
+						workers.execute(job);
+					} catch (RejectedExecutionException e) {
+						jobs.remove(job.id);
+						reply(socket, "ERROR busy, " + workers.getActiveCount() + " running and " + workers.getQueue().size() + " queued");
+						return;
+					}
+					handedOver = true;
+					reply(socket, "JOB " + job.id);
+				}
+			} else if ("CANCEL".equals(command)) {
+				int id;
+				try {
+					id = Integer.parseInt(rest);
+				} catch (NumberFormatException e) {
+					reply(socket, "ERROR usage: CANCEL <id>");
+					return;
+				}
+				Job job = jobs.get(id);
+				if (job != null) {
+					job.bh.cancel();  // a queued job stops after its first step
+				}
+				reply(socket, (job != null ? "OK " : "UNKNOWN ") + id);
+			} else if ("JOBS".equals(command)) {
+				StringBuilder list = new StringBuilder();
+				for (Job job : jobs.values()) {
+					list.append(job.id).append(job.running ? " RUNNING\n" : " QUEUED\n");
+				}
+				reply(socket, list + "END");
+			} else {
+				reply(socket, "ERROR unknown command " + command);
+			}
+		} catch (IOException e) {
+		} finally {
+			if (! handedOver) {
+				close(socket);
+			}
+		}
+	}
+	
+	/**
+	 * Accept connections until the server is closed
+	 */
+	public void serve () {
+		while (! serverSocket.isClosed()) {
+			final Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (SocketException e) {  // closed
+				break;
+			} catch (IOException e) {
+				continue;
+			}
+			connections.execute(new Runnable() {
+				@Override
+				public void run () {
+					handle(socket);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Stop listening and cancel every job
+	 */
+	@Override
+	public void close () throws IOException {
+		serverSocket.close();
+		for (Job job : jobs.values()) {
+			job.bh.cancel();
+		}
+		workers.shutdown();
+		connections.shutdown();
+	}
+	
+	/**
+	 * Run the server until the process is killed
+	 * 
+	 * @param args[0] optional port, default 7474
+	 * @param args[1] optional number of jobs to run at once, defaults to the number of processors
+	 * @param args[2] optional number of jobs to queue, default 256
+	 * @param args[3] optional directory for FILE output, FILE is refused without one
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int queue = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+		File outputDirectory = args.length > 3 ? new File(args[3]) : null;
+		SimulationServer server = new SimulationServer(port, concurrency, queue, outputDirectory);
+		System.err.println("Listening on " + InetAddress.getLoopbackAddress().getHostAddress() + ":" + server.getPort() + ", " + concurrency + " jobs at once"
+				+ (outputDirectory != null ? ", files in " + server.outputDirectory : ", no file output"));
+		server.serve();
+	}
+}
@@ -0,0 +1,47 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+/**
+ * @author ian
+ * <p>
+ * A separable Hamiltonian system that the {@link Integrator} compositions can advance
+ */
+abstract class Symplectic {
+	
+	/**
+	 * Advance the coordinates using the current momenta
+	 * @param c composition coefficient, multiplies the timestep
+	 */
+	abstract void updateQ (double c);
+	
+	/**
+	 * Two consecutive coordinate advances with no momentum update in between, merged into one.
+	 * Implementations may apply the two increments separately, to keep the rounding of the unmerged sequence, as long as any work that depends only on
+	 * the coordinates is done once.
+	 * @param c1 first composition coefficient
+	 * @param c2 second composition coefficient
+	 */
+	void updateQ (double c1, double c2) {
+		updateQ(c1 + c2);
+	}
+	
+	/**
+	 * Advance the momenta using the current coordinates
+	 * @param c composition coefficient, multiplies the timestep
+	 */
+	abstract void updateP (double c);
+}
@@ -0,0 +1,62 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * @author ian
+ * <p>
+ * Copies every record to several sinks, in order
+ */
+public final class TeeSink implements TrajectorySink, Flushable {
+	
+	private final TrajectorySink[] sinks;
+	
+	/**
+	 * @param sinks the receivers, closed when this sink is closed
+	 */
+	public TeeSink (TrajectorySink... sinks) {
+		this.sinks = sinks.clone();
+	}
+	
+	@Override
+	public void write (double[] record) {
+		for (TrajectorySink sink : sinks) {
+			sink.write(record);
+		}
+	}
+	
+	/**
+	 * Flush those sinks that can be flushed
+	 */
+	@Override
+	public void flush () throws IOException {
+		for (TrajectorySink sink : sinks) {
+			if (sink instanceof Flushable) {
+				((Flushable)sink).flush();
+			}
+		}
+	}
+	
+	@Override
+	public void close () {
+		for (TrajectorySink sink : sinks) {
+			sink.close();
+		}
+	}
+}
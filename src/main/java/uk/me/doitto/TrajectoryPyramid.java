@@ -0,0 +1,184 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static uk.me.doitto.PyramidSink.BUCKETS_OFFSET;
+import static uk.me.doitto.PyramidSink.HEADER_SIZE;
+import static uk.me.doitto.PyramidSink.LAST;
+import static uk.me.doitto.PyramidSink.MAGIC;
+import static uk.me.doitto.PyramidSink.MAX;
+import static uk.me.doitto.PyramidSink.MIN;
+import static uk.me.doitto.PyramidSink.TRACKED;
+import static uk.me.doitto.PyramidSink.VALUES;
+import static uk.me.doitto.PyramidSink.VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author ian
+ * <p>
+ * Read-only, memory-mapped view of one level of a pyramid written by {@link PyramidSink}
+ */
+public final class TrajectoryPyramid {
+	
+	private final long records;
+	
+	private final int size;
+	
+	private final DoubleBuffer buckets;
+	
+	/**
+	 * Map a level file
+	 * @param path the file to read
+	 * @throws IOException if the file is not a pyramid level in a supported format
+	 */
+	public TrajectoryPyramid (File path) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (channel.size() < HEADER_SIZE) {
+				throw new IOException(path + ": too short for a pyramid header");
+			}
+			MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(12) != VALUES) {
+				throw new IOException(path + ": not a version " + VERSION + " pyramid level");
+			}
+			records = header.getLong(16);
+			size = (int)Math.min(header.getLong(BUCKETS_OFFSET), (channel.size() - HEADER_SIZE) / (VALUES * 8));
+			MappedByteBuffer body = channel.map(MapMode.READ_ONLY, HEADER_SIZE, (long)size * VALUES * 8);
+			buckets = body.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Map every level of a pyramid
+	 * @param base the path passed to the PyramidSink
+	 * @return the levels, finest first
+	 * @throws IOException if there is no first level
+	 */
+	public static List<TrajectoryPyramid> levels (String base) throws IOException {
+		List<TrajectoryPyramid> levels = new ArrayList<TrajectoryPyramid>();
+		levels.add(new TrajectoryPyramid(new File(base + ".1")));
+		for (int n = 2; new File(base + "." + n).isFile(); n++) {
+			levels.add(new TrajectoryPyramid(new File(base + "." + n)));
+		}
+		return levels;
+	}
+	
+	/**
+	 * @return the number of records summarised by each full bucket
+	 */
+	public long getRecordsPerBucket () {
+		return records;
+	}
+	
+	/**
+	 * @return the number of buckets
+	 */
+	public int size () {
+		return size;
+	}
+	
+	/**
+	 * @param bucket the bucket number
+	 * @param value PyramidSink.COUNT, PyramidSink.MINO, or 2 + 3 * (index into TRACKED) + MIN, MAX or LAST
+	 * @return the stored value
+	 */
+	public double get (int bucket, int value) {
+		return buckets.get(bucket * VALUES + value);
+	}
+	
+	/**
+	 * @param mino a Mino time
+	 * @return the first bucket ending at or after it, or size() if there is none
+	 */
+	public int find (double mino) {
+		int low = 0, high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (get(middle, PyramidSink.MINO) < mino) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * @param bucket the bucket number
+	 * @return a single line JSON representation, each tracked field as its last value with its minimum and maximum alongside
+	 */
+	public String toJson (int bucket) {
+		StringBuilder json = new StringBuilder("{\"mino\":").append(get(bucket, PyramidSink.MINO)).append(", \"count\":").append((long)get(bucket, PyramidSink.COUNT));
+		for (int i = 0; i < TRACKED.length; i++) {
+			String key = TrajectorySink.KEYS[TRACKED[i]];
+			json.append(", \"").append(key).append("\":").append(get(bucket, 2 + 3 * i + LAST));
+			json.append(", \"").append(key).append("Min\":").append(get(bucket, 2 + 3 * i + MIN));
+			json.append(", \"").append(key).append("Max\":").append(get(bucket, 2 + 3 * i + MAX));
+		}
+		return json.append('}').toString();
+	}
+	
+	/**
+	 * Print the finest level that shows a range of the trajectory in no more than a given number of buckets, as JSON lines
+	 * 
+	 * @param args[0] the pyramid base path
+	 * @param args[1] the maximum number of lines
+	 * @param args[2] optional start of the range in Mino time
+	 * @param args[3] optional end of the range in Mino time
+	 * @throws IOException
+	 */
+	public static void main (String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: TrajectoryPyramid <base> <points> [fromMino toMino]");
+			System.exit(1);
+		}
+		List<TrajectoryPyramid> levels = levels(args[0]);
+		int points = Integer.parseInt(args[1]);
+		double from = args.length > 3 ? Double.parseDouble(args[2]) : Double.NEGATIVE_INFINITY;
+		double to = args.length > 3 ? Double.parseDouble(args[3]) : Double.POSITIVE_INFINITY;
+		TrajectoryPyramid level = null;
+		int first = 0, last = 0;
+		for (TrajectoryPyramid candidate : levels) {
+			level = candidate;
+			first = level.find(from);
+			last = Math.min(level.find(to) + 1, level.size());
+			if (last - first <= points) {
+				break;
+			}
+		}
+		PrintStream output = new PrintStream(new BufferedOutputStream(System.out, 1 << 16));
+		for (int bucket = first; bucket < last; bucket++) {
+			output.println(level.toJson(bucket));
+		}
+		output.flush();
+	}
+}
@@ -0,0 +1,55 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+/**
+ * @author ian
+ * <p>
+ * Receives the state of a simulation once per Mino time step.
+ * <p>
+ * The record is a primitive array indexed by the constants below, in the order of the original JSON output; it is reused by the caller for every step,
+ * so implementations must copy anything they want to keep.
+ */
+public interface TrajectorySink {
+	
+	int MINO = 0, TAU = 1, E = 2, ER = 3, ETH = 4, EC = 5, T = 6, R = 7, TH = 8, PH = 9, TDOT = 10, RDOT = 11, THDOT = 12, PHDOT = 13, X = 14, Y = 15, Z = 16;
+	
+	/**
+	 * The number of fields in a record
+	 */
+	int FIELDS = 17;
+	
+	/**
+	 * The JSON key of each field
+	 */
+	String[] KEYS = { "mino", "tau", "E", "ER", "ETh", "EC", "t", "r", "th", "ph", "tDot", "rDot", "thDot", "phDot", "x", "y", "z" };
+	
+	/**
+	 * A field selection with every field, bit i set for field i
+	 */
+	int ALL = (1 << FIELDS) - 1;
+	
+	/**
+	 * Accept one step
+	 * @param record the state, FIELDS values long
+	 */
+	void write (double[] record);
+	
+	/**
+	 * Flush and release any resources, no further records will be written
+	 */
+	void close ();
+}
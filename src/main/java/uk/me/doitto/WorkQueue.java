@@ -0,0 +1,423 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+
+/**
+ * @author ian
+ * <p>
+ * A crash tolerant work queue in a shared directory, for sweeps spread over many worker processes on one or more hosts with no broker.
+ * <p>
+ * A sweep is split into chunks of initial conditions, each an NDJSON file in todo/ named after the index of its first member. A worker claims a
+ * chunk by renaming it into leased/ with its own name appended, which succeeds for exactly one worker, runs it as an {@link Ensemble}, writes the
+ * summaries to a temporary file that it renames into done/, and finally deletes its lease. While it runs it keeps touching the lease, and any
+ * worker that finds a lease untouched for longer than the lease time renames it back into todo/, so the chunk of a dead worker is run again.
+ * Results are deterministic and replaced atomically, so a chunk that ends up run twice (by a worker that was only slow) does no harm.
+ * A chunk that fails, for instance on a malformed initial condition, would fail the same way for every worker, so rather than being retried it
+ * is moved into failed/ beside a file holding the error, and the worker carries on; status and merge report it.
+ * The lease test compares file times against the local clock, so the hosts sharing a directory need roughly synchronised clocks.
+ * <p>
+ * Layout:
+ * <pre>
+ *   queue.json                     number of initial conditions, chunk size and number of chunks
+ *   todo/0000000040.ndjson         unclaimed chunk starting at index 40
+ *   leased/0000000040.ndjson~id    chunk claimed by worker id
+ *   done/0000000040.ndjson         one summary line per member, indices global to the sweep
+ *   failed/0000000040.ndjson       chunk whose run threw an exception
+ *   failed/0000000040.ndjson.error the exception's stack trace
+ * </pre>
+ */
+public final class WorkQueue {
+	
+	private static final String MANIFEST = "queue.json", SEPARATOR = "~", CHUNK = ".ndjson", ERROR = ".error";
+	
+	private static final AtomicInteger WORKERS = new AtomicInteger();
+	
+	private final File directory, todo, leased, done, failed;
+	
+	private final String worker;
+	
+	private long leaseMillis = 60000L, pollMillis = 1000L;
+	
+	/**
+	 * @param directory the shared queue directory
+	 */
+	public WorkQueue (File directory) {
+		this.directory = directory;
+		todo = new File(directory, "todo");
+		leased = new File(directory, "leased");
+		done = new File(directory, "done");
+		failed = new File(directory, "failed");
+		worker = (ManagementFactory.getRuntimeMXBean().getName() + "-" + WORKERS.incrementAndGet()).replaceAll("[^A-Za-z0-9.@-]", "_");
+	}
+	
+	/**
+	 * @param leaseMillis how long a lease lasts without being renewed, renewals happen three times as often
+	 */
+	public void setLeaseMillis (long leaseMillis) {
+		this.leaseMillis = leaseMillis;
+	}
+	
+	/**
+	 * @param pollMillis how long an idle worker waits before looking again for work or expired leases
+	 */
+	public void setPollMillis (long pollMillis) {
+		this.pollMillis = pollMillis;
+	}
+	
+	/**
+	 * @return the name this worker appends to its leases
+	 */
+	public String getWorker () {
+		return worker;
+	}
+	
+	/**
+	 * Create the queue
+	 * @param ics the whole sweep, in the Ensemble format
+	 * @param chunkSize initial conditions per chunk
+	 * @return the number of chunks
+	 * @throws IOException if the directory already holds a queue or cannot be written
+	 */
+	@SuppressWarnings("unchecked")
+	public int split (List<JSONObject> ics, int chunkSize) throws IOException {
+		if (new File(directory, MANIFEST).exists()) {
+			throw new IOException("Queue already exists in " + directory);
+		}
+		for (File subdirectory : new File[] { todo, leased, done, failed }) {
+			if (! subdirectory.isDirectory() && ! subdirectory.mkdirs()) {
+				throw new IOException("Cannot create " + subdirectory);
+			}
+		}
+		int chunks = 0;
+		for (int first = 0; first < ics.size(); first += chunkSize) {
+			File temporary = new File(directory, "." + chunkName(first));
+			PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+			for (JSONObject ic : ics.subList(first, Math.min(first + chunkSize, ics.size()))) {
+				output.println(ic.toJSONString());
+			}
+			output.close();
+			if (output.checkError()) {
+				throw new IOException("Cannot write " + temporary);
+			}
+			Files.move(temporary.toPath(), new File(todo, chunkName(first)).toPath(), StandardCopyOption.ATOMIC_MOVE);
+			chunks++;
+		}
+		JSONObject manifest = new JSONObject();
+		manifest.put("ics", ics.size());
+		manifest.put("chunkSize", chunkSize);
+		manifest.put("chunks", chunks);
+		writeAtomically(new File(directory, MANIFEST), manifest.toJSONString());
+		return chunks;
+	}
+	
+	private static String chunkName (int first) {
+		return String.format("%010d" + CHUNK, first);
+	}
+	
+	private static String[] list (File subdirectory) {
+		String[] names = subdirectory.list();
+		if (names == null) {
+			return new String[0];
+		}
+		Arrays.sort(names);
+		return names;
+	}
+	
+	private static void writeAtomically (File file, String text) throws IOException {
+		File temporary = new File(file.getParentFile(), "." + file.getName() + SEPARATOR + System.nanoTime());
+		PrintStream output = new PrintStream(new FileOutputStream(temporary));
+		output.print(text);
+		output.close();
+		if (output.checkError()) {
+			temporary.delete();
+			throw new IOException("Cannot write " + temporary);
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Return the chunks of workers that have stopped renewing their leases to todo/
+	 * @return the number reclaimed by this call
+	 */
+	int reclaim () {
+		int reclaimed = 0;
+		long expired = System.currentTimeMillis() - leaseMillis;
+		for (String name : list(leased)) {
+			File lease = new File(leased, name);
+			long modified = lease.lastModified();
+			if (modified != 0L && modified < expired) {
+				try {
+					Files.move(lease.toPath(), new File(todo, name.substring(0, name.indexOf(SEPARATOR))).toPath(), StandardCopyOption.ATOMIC_MOVE);
+					reclaimed++;
+				} catch (IOException e) {
+					// renewed, finished or reclaimed by someone else meanwhile
+				}
+			}
+		}
+		return reclaimed;
+	}
+	
+	/**
+	 * Claim the first unclaimed chunk that has no result yet
+	 * @return the lease, or null if there is nothing to claim
+	 */
+	File claim () {
+		for (String name : list(todo)) {
+			if (name.startsWith(".")) {
+				continue;
+			}
+			File lease = new File(leased, name + SEPARATOR + worker);
+			try {
+				Files.move(new File(todo, name).toPath(), lease.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				continue;  // claimed by another worker first
+			}
+			lease.setLastModified(System.currentTimeMillis());
+			if (new File(done, name).exists() || new File(failed, name).exists()) {  // finished by a worker whose lease had expired
+				lease.delete();
+				continue;
+			}
+			return lease;
+		}
+		return null;
+	}
+	
+	/**
+	 * Run a claimed chunk, publish its summaries and release the lease, or set the chunk aside in failed/ if running it throws
+	 * @param lease from claim()
+	 * @param pool runs the members of the chunk
+	 * @throws IOException if the chunk cannot be read or its results written
+	 */
+	void run (final File lease, ForkJoinPool pool) throws IOException {
+		String chunk = lease.getName().substring(0, lease.getName().indexOf(SEPARATOR));
+		int first = Integer.parseInt(chunk.substring(0, chunk.indexOf('.')));
+		Timer timer = new Timer("lease " + lease.getName(), true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run () {
+				lease.setLastModified(System.currentTimeMillis());
+			}
+		}, leaseMillis / 3, leaseMillis / 3);
+		try {
+			Summary[] summaries;
+			try {
+				summaries = new Ensemble(Ensemble.readNdjson(new FileReader(lease)), null).run(pool);
+			} catch (FileNotFoundException e) {
+				return;  // reclaimed before it could be read, someone else will run it
+			} catch (RuntimeException e) {
+				fail(lease, chunk, e);
+				return;
+			}
+			StringBuilder text = new StringBuilder();
+			for (Summary summary : summaries) {
+				text.append(new Summary(first + summary.index, summary.eCum, summary.steps, summary.termination).toJson()).append('\n');
+			}
+			writeAtomically(new File(done, chunk), text.toString());
+		} finally {
+			timer.cancel();
+		}
+		lease.delete();
+	}
+	
+	/**
+	 * Record why a chunk failed, then move its lease into failed/
+	 */
+	private void fail (File lease, String chunk, RuntimeException e) throws IOException {
+		StringWriter trace = new StringWriter();
+		e.printStackTrace(new PrintWriter(trace));
+		failed.mkdirs();  // absent from queues split before chunks could fail
+		writeAtomically(new File(failed, chunk + ERROR), trace.toString());
+		try {
+			Files.move(lease.toPath(), new File(failed, chunk).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (NoSuchFileException x) {
+			// reclaimed meanwhile, whoever runs it next will fail it too
+		}
+	}
+	
+	/**
+	 * Claim and run chunks until every chunk has a result or has failed, waiting for other workers' leases to finish or expire
+	 * @param pool runs the members of each chunk, its parallelism sets the number of cores this worker uses
+	 * @return the number of chunks this worker ran
+	 * @throws IOException if a chunk cannot be read or its results written
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public int work (ForkJoinPool pool) throws IOException, InterruptedException {
+		int ran = 0;
+		while (true) {
+			reclaim();
+			File lease = claim();
+			if (lease != null) {
+				run(lease, pool);
+				ran++;
+			} else if (list(leased).length == 0 && list(todo).length == 0) {
+				return ran;
+			} else {
+				Thread.sleep(pollMillis);
+			}
+		}
+	}
+	
+	/**
+	 * @return how many chunks there are, and how many of them are unclaimed, leased, done and failed
+	 * @throws IOException if there is no queue
+	 */
+	public int[] status () throws IOException {
+		return new int[] { chunks(), count(todo), count(leased), count(done), count(failed) };
+	}
+	
+	private static int count (File subdirectory) {
+		int n = 0;
+		for (String name : list(subdirectory)) {
+			if (! name.startsWith(".") && ! name.endsWith(ERROR)) {
+				n++;
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * @return one line per failed chunk, its name followed by the exception it threw
+	 * @throws IOException if an error file cannot be read
+	 */
+	public List<String> failures () throws IOException {
+		List<String> failures = new ArrayList<String>();
+		for (String name : list(failed)) {
+			if (name.startsWith(".") || name.endsWith(ERROR)) {
+				continue;
+			}
+			String error;
+			BufferedReader reader = new BufferedReader(new FileReader(new File(failed, name + ERROR)));
+			try {
+				error = reader.readLine();
+			} finally {
+				reader.close();
+			}
+			failures.add(name + ": " + error);
+		}
+		return failures;
+	}
+	
+	private int chunks () throws IOException {
+		File manifest = new File(directory, MANIFEST);
+		if (! manifest.exists()) {
+			throw new IOException("No queue in " + directory);
+		}
+		return ((Long)KerrMotion.readJson(new FileReader(manifest)).get("chunks")).intValue();
+	}
+	
+	/**
+	 * Concatenate the results in sweep order
+	 * @param output receives one summary line per initial condition
+	 * @throws IOException if any chunk has failed or has no result yet
+	 */
+	public void merge (PrintStream output) throws IOException {
+		int chunks = chunks(), finished = count(done);
+		List<String> failures = failures();
+		if (! failures.isEmpty()) {
+			StringBuilder message = new StringBuilder().append(failures.size()).append(" of ").append(chunks).append(" chunks failed");
+			for (String failure : failures) {
+				message.append("\n  ").append(failure);
+			}
+			throw new IOException(message.toString());
+		}
+		if (finished != chunks) {
+			throw new IOException((chunks - finished) + " of " + chunks + " chunks not done");
+		}
+		for (String name : list(done)) {
+			if (name.startsWith(".")) {
+				continue;
+			}
+			BufferedReader reader = new BufferedReader(new FileReader(new File(done, name)));
+			try {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					output.println(line);
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		output.flush();
+	}
+	
+	/**
+	 * Split a sweep, work on a queue, report on it or merge its results
+	 * 
+	 * @param args split &lt;queue&gt; &lt;ics.ndjson | -&gt; &lt;chunkSize&gt;, work &lt;queue&gt; [threads] [leaseSeconds], status &lt;queue&gt; or merge &lt;queue&gt;
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void main (String[] args) throws IOException, InterruptedException {
+		if (args.length < 2 || ! Arrays.asList("split", "work", "status", "merge").contains(args[0]) || ("split".equals(args[0]) && args.length < 4)) {
+			System.err.println("Usage: WorkQueue split <queue> <ics.ndjson | -> <chunkSize>");
+			System.err.println("       WorkQueue work <queue> [threads] [leaseSeconds]");
+			System.err.println("       WorkQueue status <queue>");
+			System.err.println("       WorkQueue merge <queue>");
+			System.exit(1);
+		}
+		WorkQueue queue = new WorkQueue(new File(args[1]));
+		if ("split".equals(args[0])) {
+			Reader reader = "-".equals(args[2]) ? new InputStreamReader(System.in) : new FileReader(new File(args[2]));
+			System.err.println(queue.split(Ensemble.readNdjson(reader), Integer.parseInt(args[3])) + " chunks");
+		} else if ("work".equals(args[0])) {
+			if (args.length > 3) {
+				queue.setLeaseMillis((long)(Double.parseDouble(args[3]) * 1000.0));
+			}
+			ForkJoinPool pool = new ForkJoinPool(args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors());
+			long start = System.nanoTime();
+			try {
+				int ran = queue.work(pool);
+				System.err.println(queue.getWorker() + " ran " + ran + " chunks in " + (System.nanoTime() - start) * 1.0e-9 + " s");
+			} finally {
+				pool.shutdown();
+			}
+		} else if ("status".equals(args[0])) {
+			int[] status = queue.status();
+			System.out.println("{\"chunks\":" + status[0] + ", \"todo\":" + status[1] + ", \"leased\":" + status[2] + ", \"done\":" + status[3]
+					+ ", \"failed\":" + status[4] + "}");
+			for (String failure : queue.failures()) {
+				System.err.println(failure);
+			}
+		} else {
+			queue.merge(new PrintStream(new BufferedOutputStream(System.out, 1 << 16)));
+		}
+	}
+}
@@ -0,0 +1,176 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.AsyncSink.Backpressure;
+
+/**
+ * Tests for {@link AsyncSink}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class AsyncSinkTest {
+	
+	/**
+	 * Holds the writer thread on its first record until released
+	 */
+	private static final class GatedSink implements TrajectorySink {
+		
+		final BufferSink buffer = new BufferSink();
+		
+		final CountDownLatch gate = new CountDownLatch(1);
+		
+		@Override
+		public void write (double[] record) {
+			try {
+				gate.await();
+			} catch (InterruptedException e) {
+				throw new RuntimeException(e);
+			}
+			buffer.write(record);
+		}
+		
+		@Override
+		public void close () {
+		}
+	}
+	
+	private static double[] record (int i) {
+		double[] record = new double[TrajectorySink.FIELDS];
+		record[TrajectorySink.MINO] = i;
+		record[TrajectorySink.PHDOT] = - i;
+		return record;
+	}
+	
+	@Test
+	public void blockKeepsEveryRecordInOrder () {
+		final GatedSink gated = new GatedSink();
+		AsyncSink sink = new AsyncSink(gated, 16, Backpressure.BLOCK);
+		new Thread(new Runnable() {
+			@Override
+			public void run () {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+				}
+				gated.gate.countDown();
+			}
+		}).start();
+		int n = 10000;
+		for (int i = 0; i < n; i++) {
+			sink.write(record(i));
+		}
+		sink.close();
+		assertEquals(n, gated.buffer.size());
+		for (int i = 0; i < n; i++) {
+			assertEquals(i, gated.buffer.get(i, TrajectorySink.MINO), 0.0);
+			assertEquals(- i, gated.buffer.get(i, TrajectorySink.PHDOT), 0.0);
+		}
+		assertTrue(sink.getStalls() > 0);
+		assertTrue(sink.getStallNanos() > 0);
+		assertEquals(0, sink.getDropped());
+		assertEquals(n, sink.getRecords());
+	}
+	
+	@Test
+	public void dropDecimatesWhileFull () {
+		GatedSink gated = new GatedSink();
+		AsyncSink sink = new AsyncSink(gated, 16, Backpressure.DROP);
+		int n = 1000;
+		for (int i = 0; i < n; i++) {
+			sink.write(record(i));
+		}
+		gated.gate.countDown();
+		sink.close();
+		assertEquals(n, sink.getRecords());
+		assertEquals(n, gated.buffer.size() + sink.getDropped());
+		assertEquals(16, gated.buffer.size());
+		for (int i = 1; i < gated.buffer.size(); i++) {
+			assertTrue(gated.buffer.get(i, TrajectorySink.MINO) > gated.buffer.get(i - 1, TrajectorySink.MINO));
+		}
+	}
+	
+	@Test
+	public void flushWaitsForTheWriter () throws IOException {
+		BufferSink buffer = new BufferSink();
+		AsyncSink sink = new AsyncSink(buffer, 1024, Backpressure.BLOCK);
+		for (int i = 0; i < 100; i++) {
+			sink.write(record(i));
+		}
+		sink.flush();
+		assertEquals(100, buffer.size());
+		sink.close();
+	}
+	
+	@Test
+	public void writerFailureReachesTheProducer () {
+		AsyncSink sink = new AsyncSink(new TrajectorySink() {
+			@Override
+			public void write (double[] record) {
+				throw new IllegalStateException("disk full");
+			}
+			
+			@Override
+			public void close () {
+			}
+		}, 16, Backpressure.BLOCK);
+		try {
+			for (int i = 0; i < 1000; i++) {
+				sink.write(record(i));
+			}
+			sink.close();
+			fail("the writer's exception was lost");
+		} catch (RuntimeException e) {
+			assertEquals("disk full", e.getCause().getMessage());
+		}
+	}
+	
+	@Test
+	public void closeAfterWriterFailureClosesDownstream () {
+		final int[] closed = new int[1];
+		AsyncSink sink = new AsyncSink(new TrajectorySink() {
+			@Override
+			public void write (double[] record) {
+				throw new IllegalStateException("disk full");
+			}
+			
+			@Override
+			public void close () {
+				closed[0]++;
+			}
+		}, 16, Backpressure.BLOCK);
+		sink.write(record(0));
+		try {
+			sink.close();
+			fail("the writer's exception was lost");
+		} catch (RuntimeException e) {
+			assertEquals("disk full", e.getCause().getMessage());
+		}
+		assertEquals(1, closed[0]);
+	}
+}
@@ -0,0 +1,118 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Properties;
+
+import org.json.simple.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.Autotuner.Budget;
+import uk.me.doitto.Autotuner.Choice;
+import uk.me.doitto.Autotuner.OrbitClass;
+
+/**
+ * Tests for {@link Autotuner}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class AutotunerTest {
+	
+	private static final String IC = "{ \"M\" : 1.0, \"a\" : 1.0, \"mu\" : 1.0, \"E\" : 0.96, \"Lz\" : 1.98, \"C\" : 6.8, \"r\" : 12.0, \"theta\" : 1.5707963267948966, \"time\" : 20.0, \"step\" : 0.001, \"integratorOrder\" : 8 }";
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static KerrMotion tuned (Choice choice) {
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 20.0, choice.step, choice.integrator);
+		bh.setSink(NullSink.INSTANCE);
+		return bh;
+	}
+	
+	@Test
+	public void meetsCumulativeBudget () throws IOException {
+		Choice choice = new Autotuner(Budget.CUMULATIVE, 1.0e-6, 0.25, null).tune(KerrMotion.readJson(new StringReader(IC)));
+		assertNotNull(choice);
+		double error = tuned(choice).simulate();
+		assertTrue(choice + " error: " + error, error < 1.0e-6);
+		assertTrue(choice + " cost", choice.cost < 20000 * (Integrator.SV8.getForceEvaluations() + Integrator.SV8.getDrifts()));
+	}
+	
+	@Test
+	public void meetsPeakBudget () throws IOException {
+		Choice choice = new Autotuner(Budget.PEAK, -100.0, 0.25, null).tune(KerrMotion.readJson(new StringReader(IC)));
+		assertNotNull(choice);
+		KerrMotion bh = tuned(choice);
+		BufferSink buffer = new BufferSink();
+		bh.setSink(buffer);
+		bh.simulate();
+		for (int i = 0; i < buffer.size(); i++) {
+			assertTrue(choice + " error: " + buffer.get(i, TrajectorySink.E), buffer.get(i, TrajectorySink.E) < -100.0);
+		}
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void cachedChoiceIsReused () throws IOException {
+		File cache = new File(folder.getRoot(), "autotune.properties");
+		JSONObject ic = KerrMotion.readJson(new StringReader(IC));
+		Autotuner first = new Autotuner(Budget.CUMULATIVE, 1.0e-4, 0.25, cache);
+		Choice choice = first.tune(ic);
+		assertTrue(first.getProbes() > 0);
+		assertTrue(cache.exists());
+		ic.put("r", 15.0);  // same spin, mass and orbit class
+		Autotuner second = new Autotuner(Budget.CUMULATIVE, 1.0e-4, 0.25, cache);
+		Choice cached = second.tune(ic);
+		assertEquals(0, second.getProbes());
+		assertEquals(choice.integrator, cached.integrator);
+		assertEquals(choice.step, cached.step, 0.0);
+		Autotuner tighter = new Autotuner(Budget.CUMULATIVE, 1.0e-6, 0.25, cache);
+		tighter.tune(ic);
+		assertTrue(tighter.getProbes() > 0);
+		ic.put("time", 0.2);  // a choice for one run length is not reused for another
+		Autotuner shorter = new Autotuner(Budget.CUMULATIVE, 1.0e-4, 0.25, cache);
+		shorter.tune(ic);
+		assertTrue(shorter.getProbes() > 0);
+		Properties saved = new Properties();
+		Reader reader = new FileReader(cache);
+		saved.load(reader);
+		reader.close();
+		assertEquals(3, saved.size());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+	
+	@Test
+	public void orbitClass () {
+		assertEquals(OrbitClass.LIGHT, OrbitClass.of(0.0, 1.0));
+		assertEquals(OrbitClass.BOUND, OrbitClass.of(1.0, 0.96));
+		assertEquals(OrbitClass.UNBOUND, OrbitClass.of(1.0, 1.0));
+	}
+}
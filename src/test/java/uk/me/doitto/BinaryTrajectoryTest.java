@@ -0,0 +1,102 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link BinarySink} and {@link BinaryTrajectory}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class BinaryTrajectoryTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	@Test
+	public void roundTrip () throws IOException {
+		double[] parameters = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 50.0, 0.001 };
+		File path = folder.newFile("trajectory.bin");
+		BinarySink binary = new BinarySink(path, parameters, 4);
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 50.0, 0.001, 4);
+		bh.setSink(binary);
+		bh.simulate();
+		binary.close();
+		BufferSink expected = new BufferSink();
+		bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 50.0, 0.001, 4);
+		bh.setSink(expected);
+		bh.simulate();
+		assertEquals(BinarySink.HEADER_SIZE + expected.size() * BinarySink.RECORD_SIZE, path.length());
+		BinaryTrajectory trajectory = new BinaryTrajectory(path);
+		assertArrayEquals(parameters, trajectory.getParameters(), 0.0);
+		assertEquals(4, trajectory.getOrder());
+		assertEquals(expected.size(), trajectory.size());
+		BufferSink replayed = new BufferSink();
+		trajectory.replay(replayed);
+		for (int field = 0; field < TrajectorySink.FIELDS; field++) {
+			assertArrayEquals(TrajectorySink.KEYS[field], expected.column(field), replayed.column(field), 0.0);
+		}
+	}
+	
+	/**
+	 * Reads and replays across chunk boundaries, including a short last chunk
+	 */
+	@Test
+	public void chunks () throws IOException {
+		File path = folder.newFile("chunks.bin");
+		BinarySink binary = new BinarySink(path, new double[10], 2);
+		double[] record = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < 100; i++) {
+			for (int field = 0; field < TrajectorySink.FIELDS; field++) {
+				record[field] = i * 100.0 + field;
+			}
+			binary.write(record);
+		}
+		binary.close();
+		BinaryTrajectory trajectory = new BinaryTrajectory(path, 7);
+		assertEquals(100, trajectory.size());
+		for (long i = 0; i < 100; i++) {
+			for (int field = 0; field < TrajectorySink.FIELDS; field++) {
+				assertEquals(i * 100.0 + field, trajectory.get(i, field), 0.0);
+			}
+		}
+		BufferSink replayed = new BufferSink();
+		trajectory.replay(replayed);
+		assertEquals(100, replayed.size());
+		for (int i = 6; i < 9; i++) {
+			assertEquals(i * 100.0 + TrajectorySink.Z, replayed.get(i, TrajectorySink.Z), 0.0);
+		}
+		assertEquals(9900.0, replayed.get(99, TrajectorySink.MINO), 0.0);
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsOtherFiles () throws IOException {
+		new BinaryTrajectory(folder.newFile("empty.bin"));
+	}
+}
@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.CaptureMap.Cell;
+import uk.me.doitto.CaptureMap.Outcome;
+
+/**
+ * Tests for {@link CaptureMap}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class CaptureMapTest {
+	
+	private static final int LZ = CaptureMap.PARAMETERS.indexOf("Lz"), R = CaptureMap.PARAMETERS.indexOf("r");
+	
+	/**
+	 * Without spin, a particle falling in from rest at infinity is captured if and only if its angular momentum is below 4M, whatever its radius
+	 */
+	@Test
+	public void marginallyBound () {
+		double[] parameters = { 1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 20.0, 0.001 };
+		CaptureMap map = new CaptureMap(parameters, Integrator.SV4, LZ, 0.0, 4.8, R, 12.0, 40.0, 4, 4, 100.0, 6);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		List<Cell> cells;
+		try {
+			cells = map.map(pool);
+		} finally {
+			pool.shutdown();
+		}
+		double area = 0.0;
+		for (Cell cell : cells) {
+			area += cell.width * cell.height;
+			if (cell.x + cell.width < 4.0) {
+				assertEquals(cell.toJson(), Outcome.CAPTURED, cell.getOutcome());
+			} else if (cell.x > 4.0) {
+				assertEquals(cell.toJson(), Outcome.ESCAPED, cell.getOutcome());
+			} else if (cell.getOutcome() == null) {
+				assertTrue(cell.toJson(), cell.x <= 4.0 && cell.x + cell.width >= 4.0);
+			}
+		}
+		assertEquals(4.8 * 28.0, area, 1.0e-9);
+		assertTrue(map.getSamples() + " samples", 4 * map.getSamples() < map.getUniformSamples());
+	}
+	
+	@Test
+	public void classify () {
+		double[] parameters = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 100.0, 0.001 };
+		CaptureMap map = new CaptureMap(parameters, Integrator.SV4, LZ, 0.0, 1.0, R, 0.0, 1.0, 1, 0, 100.0, 6);
+		assertEquals(Outcome.BOUND, map.classify(1.98, 12.0));
+		assertEquals("inside the centrifugal barrier", Outcome.FORBIDDEN, map.classify(10.0, 3.0));
+		assertEquals(Outcome.CAPTURED, map.classify(0.0, 12.0));
+		assertEquals("classify() does not touch the lattice", 0, map.getSamples());
+	}
+	
+	@Test
+	public void uniformCellIsNotRefined () {
+		double[] parameters = { 1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 20.0, 0.001 };
+		CaptureMap map = new CaptureMap(parameters, Integrator.SV4, LZ, 0.0, 2.0, R, 12.0, 20.0, 2, 6, 100.0, 6);
+		ForkJoinPool pool = new ForkJoinPool(1);
+		List<Cell> cells;
+		try {
+			cells = map.map(pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(4, cells.size());
+		assertEquals(9, map.getSamples());
+		for (Cell cell : cells) {
+			assertEquals(Outcome.CAPTURED, cell.getOutcome());
+		}
+	}
+}
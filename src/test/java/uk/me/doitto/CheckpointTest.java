@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link Checkpoint}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class CheckpointTest {
+	
+	private static final double[] PARAMETERS = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 5.0, 0.001 };
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Stands in for a job being killed part way through a run
+	 */
+	private static final class Killed extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+	
+	private static final class KillingSink implements TrajectorySink, Flushable {
+		
+		private final TrajectorySink downstream;
+		
+		private long remaining;
+		
+		KillingSink (TrajectorySink downstream, long records) {
+			this.downstream = downstream;
+			this.remaining = records;
+		}
+		
+		@Override
+		public void write (double[] record) {
+			if (remaining-- == 0) {
+				throw new Killed();
+			}
+			downstream.write(record);
+		}
+		
+		@Override
+		public void flush () throws IOException {
+			((Flushable)downstream).flush();
+		}
+		
+		@Override
+		public void close () {
+			downstream.close();
+		}
+	}
+	
+	private static KerrMotion bh () {
+		double[] p = PARAMETERS;
+		return new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], Integrator.SV4);
+	}
+	
+	private Checkpoint checkpoint (File file) {
+		return new Checkpoint(file, PARAMETERS, Integrator.SV4, 500, 0.0);
+	}
+	
+	@Test
+	public void resumeIsBitIdentical () throws IOException {
+		File expected = folder.newFile("expected.json"), actual = folder.newFile("actual.json"), snapshot = new File(folder.getRoot(), "run.ckpt");
+		KerrMotion bh = bh();
+		FastJsonSink complete = new FastJsonSink(new FileOutputStream(expected).getChannel());
+		bh.setSink(complete);
+		double eCum = bh.simulate();
+		complete.close();
+		long steps = bh.getSteps();
+		bh = bh();
+		FastJsonSink partial = new FastJsonSink(new FileOutputStream(actual).getChannel());
+		bh.setSink(new KillingSink(partial, 1234));
+		bh.setCheckpoint(checkpoint(snapshot));
+		try {
+			bh.simulate();
+			fail("not killed");
+		} catch (Killed e) {
+			partial.flush();  // some of the records after the snapshot reach the file
+		}
+		bh = bh();
+		Checkpoint checkpoint = checkpoint(snapshot);
+		long records = checkpoint.restore(bh);
+		assertEquals(1000, records);
+		FastJsonSink resumed = FastJsonSink.append(actual, records);
+		bh.setSink(resumed);
+		bh.setCheckpoint(checkpoint);
+		assertEquals(eCum, bh.simulate(), 0.0);
+		resumed.close();
+		assertEquals(steps, bh.getSteps());
+		assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()));
+	}
+	
+	@Test
+	public void resumeBinary () throws IOException {
+		File snapshot = new File(folder.getRoot(), "run.ckpt"), path = folder.newFile("trajectory.bin");
+		BufferSink expected = new BufferSink();
+		KerrMotion bh = bh();
+		bh.setSink(expected);
+		bh.simulate();
+		bh = bh();
+		BinarySink binary = new BinarySink(path, PARAMETERS, 4);
+		bh.setSink(new KillingSink(binary, 2345));
+		bh.setCheckpoint(checkpoint(snapshot));
+		try {
+			bh.simulate();
+			fail("not killed");
+		} catch (Killed e) {
+			binary.close();
+		}
+		bh = bh();
+		Checkpoint checkpoint = checkpoint(snapshot);
+		binary = new BinarySink(path, checkpoint.restore(bh));
+		bh.setSink(binary);
+		bh.simulate();
+		binary.close();
+		BinaryTrajectory trajectory = new BinaryTrajectory(path);
+		assertEquals(expected.size(), trajectory.size());
+		double[] a = new double[TrajectorySink.FIELDS], b = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < expected.size(); i++) {
+			expected.get(i, a);
+			trajectory.get(i, b);
+			assertArrayEquals(a, b, 0.0);
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void rejectsDifferentParameters () throws IOException {
+		File snapshot = new File(folder.getRoot(), "run.ckpt");
+		KerrMotion bh = bh();
+		bh.setSink(NullSink.INSTANCE);
+		bh.setCheckpoint(checkpoint(snapshot));
+		bh.simulate();
+		double[] p = PARAMETERS.clone();
+		p[9] = 0.002;
+		new Checkpoint(snapshot, p, Integrator.SV4, 500, 0.0).restore(bh());
+	}
+}
@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.KerrMotion.Termination;
+
+/**
+ * Tests for {@link Ensemble}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class EnsembleTest {
+	
+	private static final String ICS =
+		"{ \"M\" : 1.0, \"a\" : 1.0, \"mu\" : 0.0, \"E\" : 1.0, \"Lz\" : -2.0, \"C\" : 27.0, \"r\" : 3.0, \"theta\" : 1.5707963267948966, \"time\" : 2.0, \"step\" : 0.001, \"integratorOrder\" : 8 }\n" +
+		"\n" +
+		"{ \"M\" : 1.0, \"a\" : 0.0, \"mu\" : 1.0, \"E\" : 1.0, \"Lz\" : 0.0, \"C\" : 0.0, \"r\" : 20.0, \"theta\" : 1.5707963267948966, \"time\" : 100.0, \"step\" : 0.001, \"integratorOrder\" : 4 }\n" +
+		"{ \"M\" : 1.0, \"a\" : 1.0, \"mu\" : 1.0, \"E\" : 0.96, \"Lz\" : 1.98, \"C\" : 6.8, \"r\" : 12.0, \"theta\" : 1.5707963267948966, \"time\" : 2.0, \"step\" : 0.001, \"integratorOrder\" : 2 }\n";
+	
+	@Test
+	public void parallelMatchesSerial () throws IOException {
+		List<JSONObject> ics = Ensemble.readNdjson(new StringReader(ICS));
+		assertEquals(3, ics.size());
+		Ensemble ensemble = new Ensemble(ics, null);
+		ForkJoinPool pool = new ForkJoinPool(3);
+		Summary[] parallel = ensemble.run(pool);
+		pool.shutdown();
+		for (int i = 0; i < ics.size(); i++) {
+			Summary serial = ensemble.run(i);
+			assertEquals(i, parallel[i].index);
+			assertEquals(serial.eCum, parallel[i].eCum, 0.0);
+			assertEquals(serial.steps, parallel[i].steps);
+			assertEquals(serial.termination, parallel[i].termination);
+		}
+		assertEquals(Termination.TIME, parallel[0].termination);
+		assertEquals(2001, parallel[0].steps);
+		assertEquals(Termination.HORIZON, parallel[1].termination);
+	}
+	
+	@Test
+	public void malformedLine () throws IOException {
+		for (String bad : new String[] { "{ \"M\" : 1.0,", "[1.0, 2.0]" }) {
+			try {
+				Ensemble.readNdjson(new StringReader(ICS + "\n" + bad + "\n"));
+				fail("parsed " + bad);
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage(), e.getMessage().startsWith("line 6: "));
+			}
+		}
+	}
+}
@@ -0,0 +1,142 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link FastJsonSink}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class FastJsonSinkTest {
+	
+	private static final double[] SPECIAL = { 0.0, -0.0, 1.0, -1.0, 0.1, 0.15, 0.25, -0.25, 0.05, -0.04, 1.0000000005, 9.9999999995, 9.99999999949, 123.45,
+		-180.0, 1.0e-20, 6.123233995736766e-17, 2.5e100, 1.0e-300, 1.0e23, 9.999999999999999e22, 123456789012345678.0, Double.MIN_VALUE,
+		Double.MIN_NORMAL, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 1.0e15, 0.95, 99.95 };
+	
+	private static String fast (double[] record) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		FastJsonSink sink = new FastJsonSink(Channels.newChannel(bytes));
+		sink.write(record);
+		sink.close();
+		return bytes.toString();
+	}
+	
+	private static String slow (double[] record) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		JsonSink sink = new JsonSink(new PrintStream(bytes));
+		sink.write(record);
+		sink.close();
+		return bytes.toString();
+	}
+	
+	private static void assertSame (double[] record) {
+		assertEquals(slow(record), fast(record));
+	}
+	
+	@Test
+	public void specialValues () {
+		for (double x : SPECIAL) {
+			double[] record = new double[TrajectorySink.FIELDS];
+			for (int i = 0; i < record.length; i++) {
+				record[i] = (i & 1) == 0 ? x : -x;
+			}
+			assertSame(record);
+		}
+	}
+	
+	@Test
+	public void randomValues () {
+		Random random = new Random(1234L);
+		double[] record = new double[TrajectorySink.FIELDS];
+		for (int n = 0; n < 20000; n++) {
+			for (int i = 0; i < record.length; i++) {
+				switch (n % 4) {
+					case 0: record[i] = Double.longBitsToDouble(random.nextLong()); break;  // any double at all
+					case 1: record[i] = (random.nextDouble() - 0.5) * Math.pow(10.0, random.nextInt(40) - 20); break;
+					case 2: record[i] = Math.round(random.nextGaussian() * 1.0e6) / 1000.0; break;  // short decimals, near ties
+					default: record[i] = (random.nextInt(4000) - 2000) / 20.0; break;  // exact ties in %.1f
+				}
+			}
+			assertSame(record);
+		}
+	}
+	
+	@Test
+	public void wholeTrajectory () {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 20.0, 0.001, 4);
+		JsonSink json = new JsonSink(new PrintStream(expected));
+		bh.setSink(json);
+		bh.simulate();
+		json.close();
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 20.0, 0.001, 4);
+		FastJsonSink fast = new FastJsonSink(Channels.newChannel(actual), 4096, true);
+		bh.setSink(fast);
+		bh.simulate();
+		fast.close();
+		assertEquals(expected.toString(), actual.toString());
+	}
+	
+	/**
+	 * Field selections keep the remaining fields in order, exactly as the printf writer does
+	 */
+	@Test
+	public void projection () {
+		Random random = new Random(4321L);
+		double[] record = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < record.length; i++) {
+			record[i] = random.nextGaussian() * 100.0;
+		}
+		for (int fields : new int[] { 1 << TrajectorySink.R, (1 << TrajectorySink.T) | (1 << TrajectorySink.R) | (1 << TrajectorySink.TH) | (1 << TrajectorySink.PH),
+				(1 << TrajectorySink.EC) | (1 << TrajectorySink.Z), random.nextInt(TrajectorySink.ALL) + 1, TrajectorySink.ALL }) {
+			ByteArrayOutputStream expected = new ByteArrayOutputStream(), actual = new ByteArrayOutputStream();
+			JsonSink json = new JsonSink(new PrintStream(expected));
+			json.setFields(fields);
+			json.write(record);
+			json.close();
+			FastJsonSink fast = new FastJsonSink(Channels.newChannel(actual));
+			fast.setFields(fields);
+			fast.write(record);
+			fast.close();
+			assertEquals(expected.toString(), actual.toString());
+			assertEquals(Integer.bitCount(fields), actual.toString().split(":").length - 1);
+		}
+		assertEquals("{\"r\":" + String.format("%.9e", record[TrajectorySink.R]) + "}" + System.lineSeparator(), projected(1 << TrajectorySink.R, record));
+	}
+	
+	private static String projected (int fields, double[] record) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		FastJsonSink sink = new FastJsonSink(Channels.newChannel(bytes));
+		sink.setFields(fields);
+		sink.write(record);
+		sink.close();
+		return bytes.toString();
+	}
+}
@@ -0,0 +1,109 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.InitialConditions.Spin;
+import uk.me.doitto.InitialConditions.Trajectory;
+
+/**
+ * Tests for {@link InitialConditions}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class InitialConditionsTest {
+	
+	private double L, E;
+
+	private void circular (double r, double a) {  // L and E for a prograde circular orbit of r
+		double sqrtR = sqrt(r);
+		double tmp = sqrt(r * r - 3.0 * r + 2.0 * a * sqrtR);
+		L = (r * r - 2.0 * a * sqrtR + a * a) / (sqrtR * tmp);
+		E = (r * r - 2.0 * r + a * sqrtR) / (r * tmp);
+	}
+	
+	@Test
+	public void circularOrbits () {
+		for (Spin spin : new Spin[] { Spin.ZERO, Spin.PROGRADE }) {
+			double a = spin == Spin.ZERO ? 0.0 : 1.0;
+			for (double r : new double[] { 4.0, 5.0, 8.0, 10.0, 12.0 }) {  // avoiding the degenerate ISCO at r = 6 for a = 0
+				InitialConditions ic = new InitialConditions(Trajectory.PARTICLE, r, r, PI / 2.0, spin, 1.0, Integrator.SV8);
+				assertTrue(ic.solve());
+				circular(r, a);
+				assertEquals("E at " + r, E, ic.getE(), 1.0e-7);  // the stopping test is on the absolute size of the potentials, which grow as r^4
+				assertEquals("L at " + r, L, ic.getL(), 1.0e-7);
+				assertEquals("Q at " + r, 0.0, ic.getQ(), 1.0e-7);
+			}
+		}
+	}
+	
+	@Test
+	public void familyMatchesSingleSolves () {
+		double[] radii = { 4.0, 5.0, 6.0, 7.0 }, thetas = { PI / 2.0, 1.4, 1.2, 1.0, 0.8 };
+		double[] family = InitialConditions.sphericalFamily(Trajectory.PARTICLE, Spin.PROGRADE, radii, thetas);
+		for (int i = 0; i < radii.length; i++) {
+			for (int j = 0; j < thetas.length; j++) {
+				InitialConditions ic = new InitialConditions(Trajectory.PARTICLE, radii[i], radii[i], thetas[j], Spin.PROGRADE, 1.0, Integrator.SV8);
+				assertTrue(ic.solve());
+				int at = 3 * (i * thetas.length + j);
+				assertEquals(ic.getE(), family[at], 1.0e-8);
+				assertEquals(ic.getL(), family[at + 1], 1.0e-8);
+				assertEquals(ic.getQ(), family[at + 2], 1.0e-7);
+			}
+		}
+	}
+	
+	@Test
+	public void unevenFamily () {
+		assertEquals(3.0, InitialConditions.secant(2.0, 1.0, 1.0, 0.0, 2.0), 0.0);
+		assertEquals(2.5, InitialConditions.secant(2.0, 1.0, 0.4, 0.0, 0.6), 1.0e-15);  // a half-size step goes half as far
+		assertEquals(2.0 + 1.0 / 3.0, InitialConditions.secant(2.0, 1.0, 1.2, 1.5, 1.1), 1.0e-15);  // decreasing parameter
+		double[] radii = { 5.0, 6.0 }, thetas = { PI / 2.0, 1.5, 1.2, 1.15, 0.8 };
+		double[] family = InitialConditions.sphericalFamily(Trajectory.PARTICLE, Spin.PROGRADE, radii, thetas);
+		for (int i = 0; i < radii.length; i++) {
+			for (int j = 0; j < thetas.length; j++) {
+				InitialConditions ic = new InitialConditions(Trajectory.PARTICLE, radii[i], radii[i], thetas[j], Spin.PROGRADE, 1.0, Integrator.SV8);
+				assertTrue(ic.solve());
+				int at = 3 * (i * thetas.length + j);
+				assertEquals(ic.getE(), family[at], 1.0e-8);
+				assertEquals(ic.getL(), family[at + 1], 1.0e-8);
+				assertEquals(ic.getQ(), family[at + 2], 1.0e-7);
+			}
+		}
+	}
+	
+	@Test
+	public void familyOrbitsAreSpherical () {
+		double[] radii = { 5.0 }, thetas = { 1.2 };
+		double[] family = InitialConditions.sphericalFamily(Trajectory.PARTICLE, Spin.PROGRADE, radii, thetas);
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, family[0], family[1], family[2], 5.0, 1.2, 20.0, 0.001, Integrator.SV8);
+		BufferSink buffer = new BufferSink();
+		bh.setSink(buffer);
+		bh.simulate();
+		for (int i = 0; i < buffer.size(); i++) {
+			assertEquals(5.0, buffer.get(i, TrajectorySink.R), 1.0e-4);
+		}
+	}
+}
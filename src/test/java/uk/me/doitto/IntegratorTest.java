@@ -0,0 +1,115 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.log;
+import static java.lang.Math.sin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link Integrator}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class IntegratorTest {
+	
+	/**
+	 * Simple pendulum, H = p^2 / 2 - cos(q)
+	 */
+	private static final class Pendulum extends Symplectic {
+		
+		private final double h;
+		
+		private double q = 1.0, p = 0.5;
+		
+		Pendulum (double h) {
+			this.h = h;
+		}
+		
+		@Override
+		void updateQ (double c) {
+			q += c * h * p;
+		}
+		
+		@Override
+		void updateP (double c) {
+			p -= c * h * sin(q);
+		}
+	}
+	
+	private static double error (Integrator integrator, int steps, Pendulum reference) {
+		Pendulum pendulum = new Pendulum(8.0 / steps);
+		for (int i = 0; i < steps; i++) {
+			integrator.solve(pendulum);
+		}
+		return Math.hypot(pendulum.q - reference.q, pendulum.p - reference.p);
+	}
+	
+	@Test
+	public void schedulesAreConsistent () {
+		for (Integrator integrator : Integrator.values()) {
+			final double[] sums = new double[2];
+			Symplectic counter = new Symplectic() {
+				@Override
+				void updateQ (double c) {
+					sums[0] += c;
+				}
+				
+				@Override
+				void updateP (double c) {
+					sums[1] += c;
+				}
+			};
+			integrator.solve(counter);
+			assertEquals(integrator + " drifts", 1.0, sums[0], 1.0e-14);
+			assertEquals(integrator + " kicks", 1.0, sums[1], 1.0e-14);
+			assertEquals(integrator + " merged", integrator.getForceEvaluations() + 1, integrator.getDrifts());
+		}
+	}
+	
+	/**
+	 * Halving the step should reduce the error by 2^order, until rounding takes over
+	 */
+	@Test
+	public void convergenceOrder () {
+		Pendulum reference = new Pendulum(8.0 / 4000);
+		for (int i = 0; i < 4000; i++) {
+			Integrator.SV10.solve(reference);
+		}
+		for (Integrator integrator : Integrator.values()) {
+			int steps = integrator.getOrder() > 6 ? 20 : 40;
+			double observed = log(error(integrator, steps, reference) / error(integrator, 2 * steps, reference)) / log(2.0);
+			assertTrue(integrator + " observed order " + observed, observed > integrator.getOrder() - 0.5);
+		}
+	}
+	
+	@Test
+	public void newMethodsOnKerr () {
+		for (Integrator integrator : new Integrator[] { Integrator.SUZUKI4, Integrator.KL6, Integrator.BM4, Integrator.BM6 }) {
+			KerrMotion bh = new KerrMotion(1.0, 1.0, 0.0, 1.0, 0.0, 22.31370849898476, 2.414213562373095, PI / 2.0, 10.0, 0.001, integrator);
+			bh.setSink(NullSink.INSTANCE);
+			double error = bh.simulate();
+			assertTrue(integrator + " error: " + error, error < 1.0e-8);
+		}
+	}
+}
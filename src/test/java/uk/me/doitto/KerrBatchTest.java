@@ -0,0 +1,112 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link KerrBatch}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class KerrBatchTest {
+	
+	private void assertMatchesSingle (double a, double mu, double time, int order, double[][] ics) {
+		KerrBatch batch = new KerrBatch(ics.length, 1.0, a, mu, time, 0.001, order);
+		for (int i = 0; i < ics.length; i++) {
+			batch.set(i, ics[i][0], ics[i][1], ics[i][2], ics[i][3], PI / 2.0);
+		}
+		batch.simulate();
+		for (int i = 0; i < ics.length; i++) {
+			KerrMotion bh = new KerrMotion(1.0, a, mu, ics[i][0], ics[i][1], ics[i][2], ics[i][3], PI / 2.0, time, 0.001, order);
+			bh.setSink(NullSink.INSTANCE);
+			double eCum = bh.simulate();
+			assertEquals("eCum " + i, eCum, batch.getECum(i), 0.0);
+			assertEquals("steps " + i, bh.getSteps(), batch.getSteps(i));
+		}
+	}
+	
+	/**
+	 * Teo spherical photon orbits, as in {@link KerrMotionTest}
+	 */
+	@Test
+	public void photonsMatchSingle () {
+		assertMatchesSingle(1.0, 0.0, 10.0, 8, new double[][] {
+			{ 1.0, 0.0, 22.31370849898476, 2.414213562373095 },
+			{ 1.0, -1.0, 25.856406460551018, 2.732050807568877 },
+			{ 1.0, -2.0, 27.0, 3.0 },
+			{ 1.0, -6.0, 9.627416997969522, 3.8284271247461903 },
+			{ 1.0, 1.0, 16.0, 2.0 } });
+	}
+	
+	/**
+	 * Some particles plunge early and must be masked without disturbing the others
+	 */
+	@Test
+	public void particlesMatchSingle () {
+		assertMatchesSingle(1.0, 1.0, 10.0, 8, new double[][] {
+			{ 1.0, 0.0, 0.0, 20.0 },
+			{ 0.962250448649377, 2.0, 1.0, 12.0 },
+			{ 0.9558, 0.035991, 14.119546, 10.0 } });
+	}
+	
+	@Test
+	public void deactivatedParticleIsFrozen () {
+		KerrBatch batch = new KerrBatch(2, 1.0, 0.0, 1.0, 0.05, 0.001, 2);
+		batch.set(0, 1.0, 0.0, 0.0, 20.0, PI / 2.0);
+		batch.set(1, 1.0, 0.0, 0.0, 20.0, PI / 2.0);
+		batch.start();
+		batch.step();
+		batch.deactivate(1);
+		double r = batch.getR(1);
+		while (batch.step()) {
+		}
+		assertFalse(batch.isActive(1));
+		assertEquals(r, batch.getR(1), 0.0);
+		assertEquals(1, batch.getSteps(1));
+		assertEquals(1, batch.getActive());
+	}
+	
+	/**
+	 * On the axis with angular momentum the polar force is NaN, which must not leak into a masked particle's state
+	 */
+	@Test
+	public void maskedParticleIgnoresNaN () {
+		KerrBatch batch = new KerrBatch(2, 1.0, 0.5, 1.0, 0.05, 0.001, 4);
+		batch.set(0, 0.96, 1.98, 6.8, 12.0, PI / 2.0);
+		batch.set(1, 0.96, 1.0, 0.0, 12.0, 0.0);
+		batch.start();
+		batch.deactivate(1);
+		while (batch.step()) {
+		}
+		assertEquals(12.0, batch.getR(1), 0.0);
+		assertEquals(0.0, batch.getTheta(1), 0.0);
+		assertEquals(0.0, batch.getT(1), 0.0);
+		assertEquals(0.0, batch.getPhi(1), 0.0);
+		assertEquals(0.0, batch.getTau(1), 0.0);
+		assertEquals(0.0, batch.getECum(1), 0.0);
+		assertEquals(0.0, batch.getThetaDot(1), 0.0);
+		assertEquals(0, batch.getSteps(1));
+		assertEquals(50, batch.getSteps(0));
+	}
+}
@@ -15,10 +15,18 @@ THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
  */
 package uk.me.doitto;
 
+import static java.lang.Math.abs;
+import static java.lang.Math.exp;
 import static java.lang.Math.sqrt;
 import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -40,48 +48,53 @@ public class KerrMotionTest {
 		E = (r * r - 2.0 * r + a * sqrtR) / (r * tmp);
 	}
 
+	private double simulate (KerrMotion bh) {  // error-only run, trajectory discarded
+		bh.setSink(NullSink.INSTANCE);
+		return bh.simulate();
+	}
+
 	/**
 	 * light 1-6: Edward Teo, Spherical photon orbits around a Kerr black hole
 	 */
 	@Test
     public void light1 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, 0.0, 22.31370849898476, 2.414213562373095, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, 0.0, 22.31370849898476, 2.414213562373095, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
 	}
 
 	@Test
     public void light2 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, -1.0, 25.856406460551018, 2.732050807568877, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, -1.0, 25.856406460551018, 2.732050807568877, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
 	}
 
 	@Test
     public void light3 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, -2.0, 27.0, 3.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, -2.0, 27.0, 3.0, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
 	}
 
 	@Test
     public void light4 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, -6.0, 9.627416997969522, 3.8284271247461903, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, -6.0, 9.627416997969522, 3.8284271247461903, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
 	}
 
 	@Test
     public void light5 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, 1.0, 16.0, 2.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, 1.0, 16.0, 2.0, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
 	}
 
 	@Test
     public void light6 () {
-		double error = new KerrMotion(1.0, 1.0, 0.0, 1.0, 1.999, 3.2590, 1.0316, PI / 2.0, 10.0, 0.001, 10).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 0.0, 1.0, 1.999, 3.2590, 1.0316, PI / 2.0, 10.0, 0.001, 10));
 		assertTrue("Error: " + error, error < 1.0e-4);
 	}
 
 	@Test
     public void polar1 () {
-		double error = new KerrMotion(1.0, 1.0, 1.0, 0.9558, 0.035991, 14.119546, 10.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 0.9558, 0.035991, 14.119546, 10.0, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 0.2);
 	}
 
@@ -90,37 +103,37 @@ public class KerrMotionTest {
     	double K = 14.783;
     	double a = 0.8;
     	double E = 0.956;
-		double error = new KerrMotion(1.0, a, 1.0, E, 0.0, K - a * a * E * E, 10.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+		double error = simulate(new KerrMotion(1.0, a, 1.0, E, 0.0, K - a * a * E * E, 10.0, PI / 2.0, 10.0, 0.001, 8));
 		assertTrue("Error: " + error, error < 1.0e-8);
     }
 
    @Test
     public void complex () {
-	   double error = new KerrMotion(1.0, 1.0, 1.0, 0.962250448649377, 2.4, 3.0, 12.0, PI / 2.0, 10.0, 0.001, 6).simulate();
+	   double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 0.962250448649377, 2.4, 3.0, 12.0, PI / 2.0, 10.0, 0.001, 6));
 	   assertTrue("Error: " + error, error < 1.0e-6);
     }
 
    @Test
    public void interesting () {
-	   double error = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 10.0, 0.001, 4).simulate();
+	   double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 10.0, 0.001, 4));
 	   assertTrue("Error: " + error, error < 1.0e-4);
    }
 
     @Test
     public void plummetAZero () {
-    	double error = new KerrMotion(1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 100.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 100.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-8);
     }
 
     @Test
     public void plummetAPlus () {
-    	double error = new KerrMotion(1.0, 1.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 10.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-7);
     }
 
     @Test
     public void plummetAMinus () {
-    	double error = new KerrMotion(1.0, -1.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, -1.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 10.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-7);
     }
 
@@ -129,7 +142,7 @@ public class KerrMotionTest {
     	double r = 12.0;
     	double a = 0.0;
     	circular(r, a);
-    	double error = new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2).simulate();
+    	double error = simulate(new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2));
     	assertTrue("Error: " + error, error < 1.0e-8);
     }
 
@@ -138,7 +151,7 @@ public class KerrMotionTest {
     	double r = 4.0;
     	double a = 0.0;
     	circular(r, a);
-    	double error = new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2).simulate();
+    	double error = simulate(new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2));
     	assertTrue("Error: " + error, error < 1.0e-24);
     }
 
@@ -147,7 +160,7 @@ public class KerrMotionTest {
     	double r = 12.0;
     	double a = 1.0;
     	circular(r, a);
-    	double error = new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2).simulate();
+    	double error = simulate(new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2));
     	assertTrue("Error: " + error, error < 1.0e-7);
     }
 
@@ -156,7 +169,7 @@ public class KerrMotionTest {
     	double r = 12.0;
     	double a = -1.0;
     	circular(r, a);
-    	double error = new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2).simulate();
+    	double error = simulate(new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2));
     	assertTrue("Error: " + error, error < 1.0e-7);
     }
 
@@ -165,49 +178,187 @@ public class KerrMotionTest {
     	double r = 6.0;
     	double a = -1.0;
     	circular(r, a);
-    	double error = new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2).simulate();
+    	double error = simulate(new KerrMotion(1.0, a, 1.0, E, L, 0.0, r, PI / 2.0, 10.0, 0.001, 2));
     	assertTrue("Error: " + error, error < 1.0e-21);
     }
 
     @Test
     public void retrograde () {
-    	double error = new KerrMotion(1.0, -1.0, 1.0, 1.0, 4.0, 0.0, 4.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, -1.0, 1.0, 1.0, 4.0, 0.0, 4.0, PI / 2.0, 10.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-10);
     }
 
     @Test
     public void messyInfall () {
-    	double error = new KerrMotion(1.0, 0.0, 1.0, 0.95, 1.5, 7.0, 14.64473, PI / 2.0, 10.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, 0.0, 1.0, 0.95, 1.5, 7.0, 14.64473, PI / 2.0, 10.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-8);
     }
 
     @Test
     public void nearInfallAPlus () {
-    	double error = new KerrMotion(1.0, 1.0, 1.0, 0.962250448649377, 2.0, 1.0, 12.0, PI / 2.0, 10.0, 0.001, 8).simulate();
+    	double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 0.962250448649377, 2.0, 1.0, 12.0, PI / 2.0, 10.0, 0.001, 8));
     	assertTrue("Error: " + error, error < 1.0e-6);
     }
 
     @Test
     public void infallAMinus () {
-    	double error = new KerrMotion(1.0, -1.0, 1.0, 0.962250448649377, 0.6 * 4.0, 1.0, 12.0, PI / 2.0, 10.0, 0.001, 6).simulate();
+    	double error = simulate(new KerrMotion(1.0, -1.0, 1.0, 0.962250448649377, 0.6 * 4.0, 1.0, 12.0, PI / 2.0, 10.0, 0.001, 6));
     	assertTrue("Error: " + error, error < 1.0e-8);
     }
 
     @Test
     public void precessingAMinus () {
-    	double error = new KerrMotion(1.0, -1.0, 1.0, 0.989352727272727, -4.683, 0.0, 12.201, PI / 2.0, 10.0, 0.001, 10).simulate();
+    	double error = simulate(new KerrMotion(1.0, -1.0, 1.0, 0.989352727272727, -4.683, 0.0, 12.201, PI / 2.0, 10.0, 0.001, 10));
     	assertTrue("Error: " + error, error < 1.0e-4);
     }
 
+    /**
+     * Rotation mode keeps within the tolerances of the recomputing mode, including near the poles and at the highest order
+     */
+    @Test
+    public void rotation () {
+    	KerrMotion[] runs = {
+    		new KerrMotion(1.0, 1.0, 0.0, 1.0, 0.0, 22.31370849898476, 2.414213562373095, PI / 2.0, 10.0, 0.001, 8),
+    		new KerrMotion(1.0, 1.0, 1.0, 0.9558, 0.035991, 14.119546, 10.0, PI / 2.0, 10.0, 0.001, 8),
+    		new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 10.0, 0.001, 4),
+    		new KerrMotion(1.0, 0.0, 1.0, 1.0, 0.0, 0.0, 20.0, PI / 2.0, 100.0, 0.001, 8),
+    		new KerrMotion(1.0, -1.0, 1.0, 0.989352727272727, -4.683, 0.0, 12.201, PI / 2.0, 10.0, 0.001, 10),
+    		new KerrMotion(1.0, 0.95, 1.0, 0.9, 1.707058, 4.021303, 4.0, PI / 2.0, 10.0, 0.01, 6)
+    	};
+    	double[] tolerances = { 1.0e-8, 0.2, 1.0e-4, 1.0e-8, 1.0e-4, 1.0e-7 };
+    	for (int i = 0; i < runs.length; i++) {
+    		runs[i].setRotation(true);
+    		double error = simulate(runs[i]);
+    		assertTrue("Run " + i + " error: " + error, error < tolerances[i]);
+    	}
+    }
+
+    /**
+     * A projection computes the selected fields exactly as a full run does, leaves the rest NaN and keeps the error sum
+     */
+    @Test
+    public void projection () {
+    	int fields = KerrMotion.fields("t, r,th,ph");
+    	assertEquals((1 << TrajectorySink.T) | (1 << TrajectorySink.R) | (1 << TrajectorySink.TH) | (1 << TrajectorySink.PH), fields);
+    	for (int selection : new int[] { fields, fields | (1 << TrajectorySink.Y) | (1 << TrajectorySink.RDOT) | (1 << TrajectorySink.ER) | (1 << TrajectorySink.EC) }) {
+    		KerrMotion full = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 5.0, 0.001, 4);
+    		KerrMotion projected = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 5.0, 0.001, 4);
+    		projected.setFields(selection);
+    		BufferSink expected = new BufferSink(), actual = new BufferSink();
+    		full.setSink(expected);
+    		projected.setSink(actual);
+    		assertEquals(full.simulate(), projected.simulate(), 0.0);
+    		assertEquals(expected.size(), actual.size());
+    		for (int i = 0; i < expected.size(); i++) {
+    			for (int field = 0; field < TrajectorySink.FIELDS; field++) {
+    				boolean kept = field == TrajectorySink.MINO || field == TrajectorySink.TAU || (selection & (1 << field)) != 0;
+    				assertEquals("record " + i + " field " + field, kept ? expected.get(i, field) : Double.NaN, actual.get(i, field), 0.0);
+    			}
+    		}
+    	}
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownField () {
+    	KerrMotion.fields("r,rho");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    @SuppressWarnings("unchecked")
+    public void emptyFieldsArray () {
+    	JSONObject ic = new JSONObject();
+    	ic.put("fields", new JSONArray());
+    	KerrMotion.fields(ic);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyFieldList () {
+    	KerrMotion.fields(",");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sinkWithNoFields () {
+    	new FastJsonSink(Channels.newChannel(new ByteArrayOutputStream())).setFields(0);
+    }
+
+    private static KerrMotion eccentric (double time) {
+    	KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, time, 0.001, 8);
+    	bh.setSink(NullSink.INSTANCE);
+    	return bh;
+    }
+
+    /**
+     * The tangent vector is the derivative of the numerical map, so it matches central differences of two perturbed runs
+     */
+    @Test
+    public void variational () {
+    	KerrMotion start = eccentric(2.0);
+    	start.initialise();
+    	double[] state = new double[KerrMotion.STATE_SIZE];
+    	start.getState(state);
+    	int[] coordinates = { 3, 4, 7, 8 };  // r, th, rDot, thDot in the snapshot
+    	for (int j = 0; j < coordinates.length; j++) {
+    		double[] unit = new double[4];
+    		unit[j] = 1.0;
+    		KerrMotion bh = eccentric(2.0);
+    		bh.setState(state, 0);
+    		bh.setVariational(0);
+    		bh.setTangent(unit[0], unit[1], unit[2], unit[3]);
+    		bh.simulate();
+    		double[] tangent = new double[4];
+    		bh.getTangent(tangent);
+    		double growth = exp(bh.getLogGrowth());
+    		double h = 1.0e-6;
+    		double[][] ends = new double[2][KerrMotion.STATE_SIZE];
+    		for (int side = 0; side < 2; side++) {
+    			double[] perturbed = state.clone();
+    			perturbed[coordinates[j]] += side == 0 ? h : - h;
+    			KerrMotion run = eccentric(2.0);
+    			run.setState(perturbed, 0);
+    			run.simulate();
+    			run.getState(ends[side]);
+    		}
+    		for (int i = 0; i < coordinates.length; i++) {
+    			double difference = (ends[0][coordinates[i]] - ends[1][coordinates[i]]) / (2.0 * h);
+    			assertEquals("d" + i + "/d" + j, difference, tangent[i] * growth, 1.0e-5 * (1.0 + growth));
+    		}
+    	}
+    }
+
+    /**
+     * Rescaling changes nothing but the rounding, and the regular motion of a Kerr orbit gives an exponent that falls towards zero
+     */
+    @Test
+    public void lyapunov () {
+    	double[] growth = new double[3];
+    	long[] intervals = { 0, 1, 1000 };
+    	for (int i = 0; i < intervals.length; i++) {
+    		KerrMotion bh = eccentric(20.0);
+    		bh.setVariational(intervals[i]);
+    		bh.simulate();
+    		growth[i] = bh.getLogGrowth();
+    	}
+    	assertEquals(growth[0], growth[1], 1.0e-9 * abs(growth[0]));
+    	assertEquals(growth[0], growth[2], 1.0e-9 * abs(growth[0]));
+    	KerrMotion shorter = eccentric(20.0), longer = eccentric(200.0);
+    	shorter.setVariational(100);
+    	longer.setVariational(100);
+    	shorter.simulate();
+    	longer.simulate();
+    	assertTrue(shorter.getLyapunovTau() + " " + longer.getLyapunovTau(), longer.getLyapunovTau() < 0.5 * shorter.getLyapunovTau());
+    	assertTrue("" + longer.getLyapunovTau(), longer.getLyapunovTau() < 0.01);
+    	assertEquals(longer.getLogGrowth() / longer.getLyapunov(), longer.getSteps() * 0.001, 1.0e-6);
+    }
+
     @Test
     public void spherical1 () {
-    	double error = new KerrMotion(1.0, 0.95, 1.0, 0.9, 1.707058, 4.021303, 4.0, PI / 2.0, 10.0, 0.01, 6).simulate();
+    	double error = simulate(new KerrMotion(1.0, 0.95, 1.0, 0.9, 1.707058, 4.021303, 4.0, PI / 2.0, 10.0, 0.01, 6));
     	assertTrue("Error: " + error, error < 1.0e-7);
     }
 
     @Test
     public void spherical2 () {
-    	double error = new KerrMotion(1.0, 1.0, 1.0, 0.9601, -2.667245, 9.381218, 10.0, PI / 2.0, 10.0, 0.01, 6).simulate();
+    	double error = simulate(new KerrMotion(1.0, 1.0, 1.0, 0.9601, -2.667245, 9.381218, 10.0, PI / 2.0, 10.0, 0.01, 6));
     	assertTrue("Error: " + error, error < 1.0e-5);
     }
 }
\ No newline at end of file
@@ -0,0 +1,98 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link Parareal}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class PararealTest {
+	
+	private static final double[] PARAMETERS = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 5.0, 0.001 };
+	
+	private BufferSink serial (double[] state) {
+		double[] p = PARAMETERS;
+		KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], p[8], p[9], Integrator.SV4);
+		BufferSink sink = new BufferSink();
+		bh.setSink(sink);
+		bh.simulate();
+		bh.getState(state);
+		return sink;
+	}
+	
+	private BufferSink parallel (Parareal parareal) throws IOException {
+		BufferSink sink = new BufferSink();
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			parareal.run(pool, sink);
+		} finally {
+			pool.shutdown();
+		}
+		return sink;
+	}
+	
+	/**
+	 * The iteration converges in fewer iterations than there are slices, and the stitched trajectory is then the serial one, record for record,
+	 * to within the convergence tolerance
+	 */
+	@Test
+	public void converged () throws IOException {
+		double[] expected = new double[KerrMotion.STATE_SIZE];
+		BufferSink reference = serial(expected);
+		int slices = 10;
+		Parareal parareal = new Parareal(PARAMETERS, Integrator.SV4, Integrator.SV2, 0.005, slices, 1.0e-10);
+		BufferSink stitched = parallel(parareal);
+		assertTrue(parareal.getIterations() + " iterations", parareal.getIterations() < slices);  // converged before the last slice became exact
+		assertEquals(reference.size(), stitched.size());
+		for (int i = 0; i < reference.size(); i++) {
+			for (int field : new int[] { TrajectorySink.MINO, TrajectorySink.T, TrajectorySink.R, TrajectorySink.TH, TrajectorySink.PH }) {
+				assertEquals("record " + i, reference.get(i, field), stitched.get(i, field), 1.0e-8);
+			}
+		}
+		double[] state = parareal.getState();
+		for (int i = 0; i < KerrMotion.STATE_SIZE; i++) {
+			assertEquals("state " + i, expected[i], state[i], 1.0e-8);
+		}
+	}
+	
+	/**
+	 * One slice is just the serial run
+	 */
+	@Test
+	public void oneSlice () throws IOException {
+		double[] expected = new double[KerrMotion.STATE_SIZE];
+		BufferSink reference = serial(expected);
+		Parareal parareal = new Parareal(PARAMETERS, Integrator.SV4, Integrator.SV2, 0.01, 1, 1.0e-10);
+		BufferSink stitched = parallel(parareal);
+		assertEquals(1, parareal.getIterations());
+		assertEquals(reference.size(), stitched.size());
+		assertEquals(expected[3], parareal.getState()[3], 0.0);
+		assertEquals(reference.get(reference.size() - 1, TrajectorySink.R), stitched.get(stitched.size() - 1, TrajectorySink.R), 0.0);
+	}
+}
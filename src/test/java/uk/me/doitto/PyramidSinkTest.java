@@ -0,0 +1,113 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link PyramidSink} and {@link TrajectoryPyramid}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class PyramidSinkTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	/**
+	 * Every bucket of every level, including the partly filled last ones, matches a direct reduction over its records
+	 */
+	@Test
+	public void bucketsMatchRecords () throws IOException {
+		int n = 12345, levels = 4;
+		double[][] records = new double[n][TrajectorySink.FIELDS];
+		Random random = new Random(1);
+		for (int i = 0; i < n; i++) {
+			for (int f = 0; f < TrajectorySink.FIELDS; f++) {
+				records[i][f] = random.nextGaussian();
+			}
+			records[i][TrajectorySink.MINO] = 0.001 * i;
+		}
+		String base = new File(folder.getRoot(), "lod").getPath();
+		PyramidSink sink = new PyramidSink(base, levels);
+		for (double[] record : records) {
+			sink.write(record);
+		}
+		sink.close();
+		List<TrajectoryPyramid> pyramid = TrajectoryPyramid.levels(base);
+		assertEquals(levels, pyramid.size());
+		long width = 1;
+		for (TrajectoryPyramid level : pyramid) {
+			width *= PyramidSink.FACTOR;
+			assertEquals(width, level.getRecordsPerBucket());
+			assertEquals((n + width - 1) / width, level.size());
+			for (int b = 0; b < level.size(); b++) {
+				int from = (int)(b * width), to = (int)Math.min(n, from + width);
+				assertEquals(to - from, level.get(b, PyramidSink.COUNT), 0.0);
+				assertEquals(records[to - 1][TrajectorySink.MINO], level.get(b, PyramidSink.MINO), 0.0);
+				for (int i = 0; i < PyramidSink.TRACKED.length; i++) {
+					double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+					for (int r = from; r < to; r++) {
+						min = Math.min(min, records[r][PyramidSink.TRACKED[i]]);
+						max = Math.max(max, records[r][PyramidSink.TRACKED[i]]);
+					}
+					assertEquals(min, level.get(b, 2 + 3 * i + PyramidSink.MIN), 0.0);
+					assertEquals(max, level.get(b, 2 + 3 * i + PyramidSink.MAX), 0.0);
+					assertEquals(records[to - 1][PyramidSink.TRACKED[i]], level.get(b, 2 + 3 * i + PyramidSink.LAST), 0.0);
+				}
+			}
+		}
+		TrajectoryPyramid first = pyramid.get(0);
+		assertEquals(0, first.find(-1.0));
+		assertEquals(50, first.find(0.5));
+		assertEquals(first.size(), first.find(100.0));
+		String json = first.toJson(0);
+		for (String key : TrajectorySink.KEYS) {
+			assertTrue(key, json.contains("\"" + key + "\":"));
+		}
+	}
+	
+	/**
+	 * A flush exposes the completed buckets written so far
+	 */
+	@Test
+	public void flushPublishesCompletedBuckets () throws IOException {
+		String base = new File(folder.getRoot(), "lod").getPath();
+		PyramidSink sink = new PyramidSink(base, 2);
+		double[] record = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < 1234; i++) {
+			sink.write(record);
+		}
+		sink.flush();
+		List<TrajectoryPyramid> pyramid = TrajectoryPyramid.levels(base);
+		assertEquals(123, pyramid.get(0).size());
+		assertEquals(12, pyramid.get(1).size());
+		sink.close();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.atan;
+import static java.lang.Math.hypot;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.RayTracer.Outcome;
+import uk.me.doitto.RayTracer.TileStats;
+
+/**
+ * Tests for {@link RayTracer}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class RayTracerTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static TileStats[] render (RayTracer tracer) {
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			return tracer.render(pool);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/**
+	 * Without spin, a ray is captured if and only if its impact parameter is below 3 sqrt(3)
+	 */
+	@Test
+	public void schwarzschildShadow () {
+		int size = 25;
+		RayTracer tracer = new RayTracer(0.0, 50.0, PI / 2.0, 2.0 * atan(8.0 / 50.0), size, size, 0.0, 0.0, 10.0, 0.0004, Integrator.BM4, 8);
+		TileStats[] stats = render(tracer);
+		assertEquals(16, stats.length);
+		int rays = 0;
+		for (TileStats tile : stats) {
+			for (int count : tile.outcomes) {
+				rays += count;
+			}
+		}
+		assertEquals(size * size, rays);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				double b = hypot(tracer.alpha(x), tracer.beta(y));
+				if (b < 0.95 * 3.0 * sqrt(3.0)) {
+					assertEquals("b = " + b, Outcome.CAPTURED, tracer.getOutcome(x, y));
+				} else if (b > 1.05 * 3.0 * sqrt(3.0)) {
+					assertEquals("b = " + b, Outcome.ESCAPED, tracer.getOutcome(x, y));
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void diskAndRawOutput () throws IOException {
+		int width = 24, height = 12;
+		RayTracer tracer = new RayTracer(0.9, 50.0, 80.0 * PI / 180.0, 30.0 * PI / 180.0, width, height, RayTracer.isco(0.9), 20.0, 10.0, 0.0004, Integrator.BM4, 16);
+		TileStats[] stats = render(tracer);
+		int disk = 0;
+		for (TileStats tile : stats) {
+			disk += tile.outcomes[Outcome.DISK.ordinal()];
+		}
+		assertTrue(disk > 0);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (tracer.getOutcome(x, y) == Outcome.DISK) {
+					assertTrue(tracer.getDiskRadius(x, y) >= RayTracer.isco(0.9) && tracer.getDiskRadius(x, y) <= 20.0);
+				}
+			}
+		}
+		File raw = new File(folder.getRoot(), "image.raw");
+		tracer.writeRaw(raw);
+		assertEquals(4L * width * height, raw.length());
+	}
+	
+	@Test
+	public void isco () {
+		assertEquals(6.0, RayTracer.isco(0.0), 1.0e-12);
+		assertEquals(1.0, RayTracer.isco(1.0), 1.0e-12);
+		assertEquals(9.0, RayTracer.isco(-1.0), 1.0e-12);
+	}
+}
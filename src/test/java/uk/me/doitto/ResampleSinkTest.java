@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static java.lang.Math.cos;
+import static java.lang.Math.sin;
+import static java.lang.Math.sqrt;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link ResampleSink}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class ResampleSinkTest {
+	
+	/**
+	 * A smooth, made-up trajectory with exact derivatives with respect to tau
+	 */
+	private static double[] record (double tau) {
+		double[] record = new double[TrajectorySink.FIELDS];
+		record[TrajectorySink.TAU] = tau;
+		record[TrajectorySink.T] = 2.0 * tau + sin(tau);
+		record[TrajectorySink.TDOT] = 2.0 + cos(tau);
+		record[TrajectorySink.R] = 10.0 + 3.0 * cos(0.7 * tau);
+		record[TrajectorySink.RDOT] = - 2.1 * sin(0.7 * tau);
+		record[TrajectorySink.TH] = 1.0 + 0.5 * sin(0.3 * tau);
+		record[TrajectorySink.THDOT] = 0.15 * cos(0.3 * tau);
+		record[TrajectorySink.PH] = 0.4 * tau;
+		record[TrajectorySink.PHDOT] = 0.4;
+		record[TrajectorySink.E] = tau;
+		return record;
+	}
+	
+	/**
+	 * Samples are evenly spaced in the chosen field, and match the smooth trajectory to the accuracy of a cubic over each interval
+	 */
+	private static void check (int field, double spacing) {
+		BufferSink buffer = new BufferSink();
+		ResampleSink sink = new ResampleSink(buffer, 1.0, field, spacing);
+		double h = 0.05;
+		for (int i = 0; i <= 400; i++) {
+			sink.write(record(i * h));
+		}
+		sink.close();
+		assertTrue(buffer.size() > 10);
+		double[] sample = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < buffer.size(); i++) {
+			buffer.get(i, sample);
+			assertEquals(i * spacing, sample[field], 1.0e-12 * (i + 1));
+			double[] exact = record(sample[TrajectorySink.TAU]);
+			for (int f : new int[] { TrajectorySink.T, TrajectorySink.R, TrajectorySink.TH, TrajectorySink.PH, TrajectorySink.E }) {
+				assertEquals(TrajectorySink.KEYS[f] + " at " + i, exact[f], sample[f], 1.0e-6);
+			}
+			for (int f : new int[] { TrajectorySink.TDOT, TrajectorySink.RDOT, TrajectorySink.THDOT, TrajectorySink.PHDOT }) {
+				assertEquals(TrajectorySink.KEYS[f] + " at " + i, exact[f], sample[f], 1.0e-4);
+			}
+			if (i == 0) {
+				continue;  // the first record is passed on as it is, and this one has no x, y, z
+			}
+			double r = sample[TrajectorySink.R], th = sample[TrajectorySink.TH];
+			assertEquals(sqrt(r * r + 1.0) * sin(th) * cos(sample[TrajectorySink.PH]), sample[TrajectorySink.X], 1.0e-12 * r);
+			assertEquals(r * cos(th), sample[TrajectorySink.Z], 1.0e-12 * r);
+		}
+	}
+	
+	@Test
+	public void coordinateTime () {
+		check(TrajectorySink.T, 0.7);
+	}
+	
+	@Test
+	public void properTime () {
+		check(TrajectorySink.TAU, 0.3);
+	}
+	
+	/**
+	 * A real trajectory comes out evenly spaced in t, with far fewer records than steps
+	 */
+	@Test
+	public void kerrMotion () {
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 10.0, 0.001, 8);
+		BufferSink buffer = new BufferSink();
+		bh.setSink(new ResampleSink(buffer, 1.0, TrajectorySink.T, 5.0));
+		bh.simulate();
+		assertTrue(buffer.size() > 100 && buffer.size() < bh.getSteps() / 10);
+		for (int i = 1; i < buffer.size(); i++) {
+			assertEquals(5.0, buffer.get(i, TrajectorySink.T) - buffer.get(i - 1, TrajectorySink.T), 1.0e-9);
+			assertTrue(buffer.get(i, TrajectorySink.TAU) > buffer.get(i - 1, TrajectorySink.TAU));
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyTimes () {
+		new ResampleSink(NullSink.INSTANCE, 0.0, TrajectorySink.R, 1.0);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import uk.me.doitto.KerrMotion.Termination;
+
+/**
+ * Tests for {@link ResultCache}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class ResultCacheTest {
+	
+	private static final double[] PARAMETERS = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 1.0, 0.001 };
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static KerrMotion integration (double time) {
+		double[] p = PARAMETERS;
+		KerrMotion bh = new KerrMotion(p[0], p[1], p[2], p[3], p[4], p[5], p[6], p[7], time, p[9], Integrator.SV4);
+		bh.setSink(NullSink.INSTANCE);
+		return bh;
+	}
+	
+	private static double[] parameters (double time) {
+		double[] p = PARAMETERS.clone();
+		p[8] = time;
+		return p;
+	}
+	
+	@Test
+	public void keyDependsOnEveryInput () {
+		String key = ResultCache.key(PARAMETERS, Integrator.SV4);
+		assertEquals(64, key.length());
+		assertEquals(key, ResultCache.key(PARAMETERS.clone(), Integrator.SV4));
+		assertFalse(key.equals(ResultCache.key(PARAMETERS, Integrator.BM4)));
+		for (int i = 0; i < PARAMETERS.length; i++) {
+			double[] p = PARAMETERS.clone();
+			p[i] = Math.nextUp(p[i]);
+			assertFalse("parameter " + i, key.equals(ResultCache.key(p, Integrator.SV4)));
+		}
+	}
+	
+	@Test
+	public void summaryRoundTrip () throws IOException {
+		ResultCache cache = new ResultCache(folder.newFolder(), 1L << 20);
+		String key = ResultCache.key(PARAMETERS, Integrator.SV4);
+		assertNull(cache.get(key, false));
+		KerrMotion bh = integration(1.0);
+		double eCum = bh.simulate();
+		cache.put(key, bh, eCum, null);
+		double[] state = new double[KerrMotion.STATE_SIZE];
+		long steps = bh.getState(state);
+		ResultCache.Entry entry = cache.get(key, false);
+		assertNotNull(entry);
+		assertEquals(eCum, entry.getECum(), 0.0);
+		assertEquals(steps, entry.getSteps());
+		assertEquals(Termination.TIME, entry.getTermination());
+		assertArrayEquals(state, entry.getState(), 0.0);
+		assertNull(entry.getTrajectory());
+		assertNull("no trajectory was stored", cache.get(key, true));
+	}
+	
+	@Test
+	public void trajectoryReplay () throws IOException {
+		ResultCache cache = new ResultCache(folder.newFolder(), 1L << 20);
+		String key = ResultCache.key(PARAMETERS, Integrator.SV4);
+		KerrMotion bh = integration(1.0);
+		BufferSink expected = new BufferSink();
+		File trajectory = cache.temporaryFile();
+		TrajectorySink sink = new TeeSink(expected, new BinarySink(trajectory, PARAMETERS, 4));
+		bh.setSink(sink);
+		double eCum = bh.simulate();
+		sink.close();
+		cache.put(key, bh, eCum, trajectory);
+		assertFalse(trajectory.exists());
+		BufferSink replayed = new BufferSink();
+		cache.get(key, true).getTrajectory().replay(replayed);
+		assertEquals(expected.size(), replayed.size());
+		double[] a = new double[TrajectorySink.FIELDS], b = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < expected.size(); i++) {
+			expected.get(i, a);
+			replayed.get(i, b);
+			assertArrayEquals(a, b, 0.0);
+		}
+	}
+	
+	@Test
+	public void leastRecentlyUsedEviction () throws IOException {
+		File directory = folder.newFolder();
+		ResultCache cache = new ResultCache(directory, 1L << 20);
+		String[] keys = new String[3];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = ResultCache.key(parameters(0.1 * (i + 1)), Integrator.SV4);
+		}
+		KerrMotion bh = integration(0.1);
+		double eCum = bh.simulate();
+		cache.put(keys[0], bh, eCum, null);
+		long entryBytes = cache.getBytes();
+		cache = new ResultCache(directory, 2 * entryBytes);
+		assertEquals(1, cache.size());
+		cache.put(keys[1], bh, eCum, null);
+		assertNotNull(cache.get(keys[0], false));
+		cache.put(keys[2], bh, eCum, null);
+		assertEquals(2, cache.size());
+		assertEquals(2 * entryBytes, cache.getBytes());
+		assertNotNull(cache.get(keys[0], false));
+		assertNull("least recently used", cache.get(keys[1], false));
+		assertNotNull(cache.get(keys[2], false));
+		assertFalse(new File(directory, keys[1] + ResultCache.SUMMARY).exists());
+	}
+	
+	@Test
+	public void cancelledRunsAreNotStored () throws IOException {
+		ResultCache cache = new ResultCache(folder.newFolder(), 1L << 20);
+		String key = ResultCache.key(PARAMETERS, Integrator.SV4);
+		KerrMotion bh = integration(1.0);
+		bh.cancel();
+		double eCum = bh.simulate();
+		File trajectory = cache.temporaryFile();
+		cache.put(key, bh, eCum, trajectory);
+		assertEquals(0, cache.size());
+		assertTrue(cache.get(key, false) == null && ! trajectory.exists());
+	}
+	
+	@Test
+	public void staleTemporaryFilesRemoved () throws IOException {
+		File directory = folder.newFolder();
+		ResultCache cache = new ResultCache(directory, 1L << 20);
+		File stale = cache.temporaryFile(), fresh = cache.temporaryFile();
+		assertTrue(stale.setLastModified(System.currentTimeMillis() - ResultCache.STALE - 60000));
+		new ResultCache(directory, 1L << 20);
+		assertFalse(stale.exists());
+		assertTrue("may belong to a run in progress", fresh.exists());
+	}
+}
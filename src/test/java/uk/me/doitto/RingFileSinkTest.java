@@ -0,0 +1,117 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link RingFileSink} and {@link RingFileReader}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class RingFileSinkTest {
+	
+	private static final double[] PARAMETERS = { 1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, Math.PI / 2.0, 5.0, 0.001 };
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static double[] record (int i) {
+		double[] record = new double[TrajectorySink.FIELDS];
+		for (int f = 0; f < record.length; f++) {
+			record[f] = i + 0.01 * f;
+		}
+		return record;
+	}
+	
+	@Test
+	public void readerFollowsTheWriter () throws IOException {
+		File file = folder.newFile();
+		RingFileSink sink = new RingFileSink(file, 64, PARAMETERS, 4);
+		RingFileReader reader = new RingFileReader(file);
+		assertArrayEquals(PARAMETERS, reader.getParameters(), 0.0);
+		BufferSink buffer = new BufferSink();
+		assertEquals(0, reader.poll(buffer));
+		int written = 0;
+		for (int batch = 0; batch < 10; batch++) {
+			for (int i = 0; i < 50; i++) {
+				sink.write(record(written++));
+			}
+			assertEquals(50, reader.poll(buffer));
+		}
+		assertFalse(reader.isFinished());
+		sink.close();
+		assertTrue(reader.isFinished());
+		assertEquals(0, reader.getSkipped());
+		assertEquals(written, buffer.size());
+		double[] actual = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < written; i++) {
+			buffer.get(i, actual);
+			assertArrayEquals(record(i), actual, 0.0);
+		}
+	}
+	
+	@Test
+	public void slowReaderSkipsAhead () throws IOException {
+		File file = folder.newFile();
+		RingFileSink sink = new RingFileSink(file, 64, PARAMETERS, 4);
+		RingFileReader reader = new RingFileReader(file);
+		for (int i = 0; i < 1000; i++) {
+			sink.write(record(i));
+		}
+		BufferSink buffer = new BufferSink();
+		long delivered = reader.poll(buffer);
+		assertTrue(delivered > 0 && delivered <= 64);
+		assertEquals(1000, delivered + reader.getSkipped());
+		double[] actual = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < buffer.size(); i++) {
+			buffer.get(i, actual);
+			assertArrayEquals(record((int)(1000 - delivered + i)), actual, 0.0);
+		}
+		sink.close();
+	}
+	
+	@Test
+	public void liveKerrMotion () throws IOException {
+		File file = folder.newFile();
+		KerrMotion bh = new KerrMotion(PARAMETERS[0], PARAMETERS[1], PARAMETERS[2], PARAMETERS[3], PARAMETERS[4], PARAMETERS[5], PARAMETERS[6], PARAMETERS[7],
+				PARAMETERS[8], PARAMETERS[9], 4);
+		BufferSink expected = new BufferSink();
+		RingFileSink ring = new RingFileSink(file, 1 << 14, PARAMETERS, 4);
+		bh.setSink(new TeeSink(expected, ring));
+		bh.simulate();
+		ring.close();
+		BufferSink actual = new BufferSink();
+		new RingFileReader(file).poll(actual);
+		assertEquals(expected.size(), actual.size());
+		for (int f = 0; f < TrajectorySink.FIELDS; f++) {
+			assertArrayEquals(expected.column(f), actual.column(f), 0.0);
+		}
+	}
+}
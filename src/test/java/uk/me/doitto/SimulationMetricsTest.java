@@ -0,0 +1,79 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link SimulationMetrics}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class SimulationMetricsTest {
+	
+	@Test
+	public void countersAccumulate () {
+		final double[] last = new double[2];
+		SimulationMetrics metrics = new SimulationMetrics(new SimulationMetrics.Recorder() {
+			@Override
+			public void sample (int order, double stepRate, double r, double e, double eR, double eTh) {
+				last[0] = order;
+				last[1] = r;
+			}
+		});
+		metrics.started();
+		metrics.sample(Integrator.SV4, 1000, 1000000L, 12.0, -90.0, -91.0, -120.0);
+		metrics.sample(Integrator.SV4, 500, 1000000L, 11.0, -80.0, -81.0, -110.0);
+		metrics.completed();
+		assertEquals(1, metrics.getSimulationsStarted());
+		assertEquals(1, metrics.getSimulationsCompleted());
+		assertEquals(1500, metrics.getSteps());
+		assertEquals(1 + 1500 * Integrator.SV4.getDrifts(), metrics.getIntermediateUpdates());
+		assertEquals(1500 * Integrator.SV4.getForceEvaluations(), metrics.getForceEvaluations());
+		assertEquals(500000.0, metrics.getStepRate(), 1.0e-9);
+		assertEquals(11.0, metrics.getRadius(), 0.0);
+		assertEquals(-80.0, metrics.getError(), 0.0);
+		assertEquals(4.0, last[0], 0.0);
+		assertEquals(11.0, last[1], 0.0);
+	}
+	
+	@Test
+	public void visibleOverJmx () throws JMException {
+		SimulationMetrics metrics = new SimulationMetrics(null);
+		metrics.sample(Integrator.SV8, 10, 1L, 6.0, -100.0, -101.0, -130.0);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("uk.me.doitto:type=SimulationMetrics,name=test");
+		server.registerMBean(metrics, name);
+		try {
+			assertEquals(10L, server.getAttribute(name, "Steps"));
+			assertEquals(8, server.getAttribute(name, "IntegratorOrder"));
+			assertEquals(6.0, server.getAttribute(name, "Radius"));
+		} finally {
+			server.unregisterMBean(name);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link SimulationServer}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class SimulationServerTest {
+	
+	private static final String IC = "{ \"M\" : 1.0, \"a\" : 1.0, \"mu\" : 1.0, \"E\" : 0.96, \"Lz\" : 1.98, \"C\" : 6.8, \"r\" : 12.0, \"theta\" : 1.5707963267948966, \"time\" : 2.0, \"step\" : 0.001, \"integratorOrder\" : 4 }";
+	
+	private static final String LONG = IC.replace("\"time\" : 2.0", "\"time\" : 1.0e6");
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private SimulationServer server;
+	
+	@Before
+	public void setUp () throws IOException {
+		server = new SimulationServer(0, 1, 1, folder.getRoot());
+		new Thread(new Runnable() {
+			@Override
+			public void run () {
+				server.serve();
+			}
+		}).start();
+	}
+	
+	@After
+	public void tearDown () throws IOException {
+		server.close();
+	}
+	
+	private Socket send (String command) throws IOException {
+		Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+		socket.getOutputStream().write((command + "\n").getBytes(SimulationServer.ASCII));
+		socket.getOutputStream().flush();
+		return socket;
+	}
+	
+	private String request (String command) throws IOException {
+		Socket socket = send(command);
+		try {
+			return new BufferedReader(new InputStreamReader(socket.getInputStream(), SimulationServer.ASCII)).readLine();
+		} finally {
+			socket.close();
+		}
+	}
+	
+	private static String oneLine (String ic) throws IOException {
+		return KerrMotion.readJson(new StringReader(ic)).toJSONString();
+	}
+	
+	@Test
+	public void streamsTheSameTrajectory () throws IOException {
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		JSONObject ic = KerrMotion.readJson(new StringReader(IC));
+		KerrMotion bh = KerrMotion.fromJson(ic);
+		FastJsonSink sink = new FastJsonSink(Channels.newChannel(expected));
+		bh.setSink(sink);
+		bh.simulate();
+		sink.close();
+		Socket socket = send("RUN " + ic.toJSONString());
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), SimulationServer.ASCII));
+		assertTrue(reader.readLine().startsWith("JOB "));
+		StringBuilder trajectory = new StringBuilder();
+		String line = reader.readLine();
+		while (line.startsWith("{")) {
+			trajectory.append(line).append(System.lineSeparator());
+			line = reader.readLine();
+		}
+		socket.close();
+		assertTrue(line, line.startsWith("END ") && line.contains("\"TIME\""));
+		assertArrayEquals(expected.toByteArray(), trajectory.toString().getBytes(SimulationServer.ASCII));
+	}
+	
+	@Test
+	public void cancelAndLimits () throws IOException {
+		File file = new File(folder.getRoot(), "long.json");
+		Socket running = send("FILE long.json " + oneLine(LONG));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(running.getInputStream(), SimulationServer.ASCII));
+		String job = reader.readLine();
+		assertTrue(job, job.startsWith("JOB "));
+		Socket queued = send("RUN " + oneLine(LONG));
+		String second = new BufferedReader(new InputStreamReader(queued.getInputStream(), SimulationServer.ASCII)).readLine();
+		assertTrue(second, second.startsWith("JOB "));
+		String rejected = request("RUN " + oneLine(LONG));  // one running, one queued, so no room
+		assertTrue(rejected, rejected.startsWith("ERROR busy"));
+		assertEquals("UNKNOWN 99", request("CANCEL 99"));
+		assertTrue(request("FROB").startsWith("ERROR"));
+		String id = job.substring(4);
+		assertEquals("OK " + id, request("CANCEL " + id));
+		String end = reader.readLine();
+		assertTrue(end, end.startsWith("END ") && end.contains("\"CANCELLED\""));
+		running.close();
+		queued.close();
+		assertTrue(file.length() > 0);
+	}
+	
+	@Test
+	public void confinedToOutputDirectory () throws IOException {
+		File outside = new File(folder.getRoot().getParentFile(), "escaped.json");
+		assertTrue(request("FILE " + outside.getAbsolutePath() + " " + oneLine(IC)).startsWith("ERROR path outside"));
+		assertTrue(request("FILE ../escaped.json " + oneLine(IC)).startsWith("ERROR path outside"));
+		assertTrue(request("FILE a/../../escaped.json " + oneLine(IC)).startsWith("ERROR path outside"));
+		assertFalse(outside.exists());
+		SimulationServer closed = new SimulationServer(0, 1, 1);
+		try {
+			assertNull(closed.outputFile("ok.json"));
+		} finally {
+			closed.close();
+		}
+		assertEquals(new File(folder.getRoot().getCanonicalFile(), "ok.json"), server.outputFile("a/../ok.json"));
+		File elsewhere = new File(folder.getRoot().getParentFile(), folder.getRoot().getName() + "-elsewhere");
+		assertTrue(elsewhere.mkdir());
+		try {
+			Files.createSymbolicLink(new File(folder.getRoot(), "link").toPath(), elsewhere.toPath());
+			assertTrue(request("FILE link/escaped.json " + oneLine(IC)).startsWith("ERROR path outside"));
+			assertTrue(request("FILE link/sub/escaped.json " + oneLine(IC)).startsWith("ERROR path outside"));
+			assertEquals(0, elsewhere.list().length);
+		} finally {
+			elsewhere.delete();
+		}
+	}
+	
+	@Test
+	public void fileJobFailureReported () throws IOException {
+		Socket socket = send("FILE missing/x.json " + oneLine(IC));
+		BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), SimulationServer.ASCII));
+		try {
+			String job = reader.readLine();
+			assertTrue(job, job.startsWith("JOB "));
+			String error = reader.readLine();
+			assertTrue(error, error.startsWith("ERROR java.io.FileNotFoundException"));
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static java.lang.Math.PI;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for the {@link TrajectorySink} implementations.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class TrajectorySinkTest {
+	
+	private BufferSink run (int interval) {
+		BufferSink buffer = new BufferSink(16);
+		KerrMotion bh = new KerrMotion(1.0, 1.0, 1.0, 0.96, 1.98, 6.8, 12.0, PI / 2.0, 1.0, 0.001, 4);
+		bh.setSink(interval > 1 ? new DecimatingSink(buffer, interval) : buffer);
+		bh.simulate();
+		return buffer;
+	}
+	
+	@Test
+	public void bufferHoldsEveryStep () {
+		BufferSink buffer = run(1);
+		assertEquals(1000, buffer.size());
+		assertEquals(12.0, buffer.get(0, TrajectorySink.R), 0.0);
+		assertEquals(0.0, buffer.get(0, TrajectorySink.MINO), 0.0);
+		assertEquals(0.999, buffer.get(999, TrajectorySink.MINO), 1.0e-9);
+		assertEquals(buffer.size(), buffer.column(TrajectorySink.T).length);
+	}
+	
+	@Test
+	public void decimatingKeepsEveryNth () {
+		BufferSink all = run(1);
+		BufferSink some = run(10);
+		assertEquals(100, some.size());
+		double[] record = new double[TrajectorySink.FIELDS];
+		double[] expected = new double[TrajectorySink.FIELDS];
+		for (int i = 0; i < some.size(); i++) {
+			some.get(i, record);
+			all.get(10 * i, expected);
+			for (int j = 0; j < TrajectorySink.FIELDS; j++) {
+				assertEquals(TrajectorySink.KEYS[j], expected[j], record[j], 0.0);
+			}
+		}
+	}
+	
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void bufferBounds () {
+		new BufferSink().get(0, TrajectorySink.R);
+	}
+}
@@ -0,0 +1,237 @@
+/*
+Copyright (c) 2014, Ian Smith (m4r35n357)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without modification, are permitted provided that the following conditions are met:
+
+1. Redistributions of source code must retain the above copyright notice, this list of conditions and the following disclaimer.
+
+2. Redistributions in binary form must reproduce the above copyright notice, this list of conditions and the following disclaimer in the documentation and/or other materials provided with the distribution.
+
+3. Neither the name of the copyright holder nor the names of its contributors may be used to endorse or promote products derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+
+ */
+package uk.me.doitto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.json.simple.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link WorkQueue}.
+ *
+ * @author ian
+ */
+@RunWith(JUnit4.class)
+public class WorkQueueTest {
+	
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	
+	private static List<JSONObject> sweep (int n) throws IOException {
+		StringBuilder ics = new StringBuilder();
+		for (int i = 0; i < n; i++) {
+			ics.append("{ \"M\" : 1.0, \"a\" : 1.0, \"mu\" : 1.0, \"E\" : 0.96, \"Lz\" : 1.98, \"C\" : 6.8, \"r\" : ").append(10.0 + 0.25 * i)
+				.append(", \"theta\" : 1.5707963267948966, \"time\" : 1.0, \"step\" : 0.001, \"integratorOrder\" : 4 }\n");
+		}
+		return Ensemble.readNdjson(new StringReader(ics.toString()));
+	}
+	
+	private static String expected (List<JSONObject> ics) throws IOException {
+		StringBuilder text = new StringBuilder();
+		Ensemble ensemble = new Ensemble(ics, null);
+		for (int i = 0; i < ics.size(); i++) {
+			text.append(ensemble.run(i).toJson()).append(System.lineSeparator());
+		}
+		return text.toString();
+	}
+	
+	private static String merged (WorkQueue queue) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		queue.merge(new PrintStream(bytes));
+		return bytes.toString();
+	}
+	
+	private static WorkQueue queue (File directory) {
+		WorkQueue queue = new WorkQueue(directory);
+		queue.setLeaseMillis(300L);
+		queue.setPollMillis(20L);
+		return queue;
+	}
+	
+	@Test
+	public void twoWorkers () throws Exception {
+		List<JSONObject> ics = sweep(10);
+		final File directory = folder.newFolder();
+		assertEquals(4, queue(directory).split(ics, 3));
+		ExecutorService workers = Executors.newFixedThreadPool(2);
+		List<Future<Integer>> ran = new ArrayList<Future<Integer>>();
+		try {
+			for (int i = 0; i < 2; i++) {
+				ran.add(workers.submit(new Callable<Integer>() {
+					@Override
+					public Integer call () throws Exception {
+						ForkJoinPool pool = new ForkJoinPool(1);
+						try {
+							return queue(directory).work(pool);
+						} finally {
+							pool.shutdown();
+						}
+					}
+				}));
+			}
+			assertEquals(4, ran.get(0).get() + ran.get(1).get());
+		} finally {
+			workers.shutdown();
+		}
+		assertEquals(expected(ics), merged(queue(directory)));
+	}
+	
+	/**
+	 * A chunk claimed by a worker that then dies is reclaimed once its lease expires
+	 */
+	@Test
+	public void deadWorker () throws Exception {
+		List<JSONObject> ics = sweep(5);
+		File directory = folder.newFolder();
+		queue(directory).split(ics, 2);
+		File lease = queue(directory).claim();
+		assertTrue(lease.getName(), lease.getName().startsWith("0000000000.ndjson~"));
+		lease.setLastModified(System.currentTimeMillis() - 1000L);
+		WorkQueue survivor = queue(directory);
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			assertEquals(3, survivor.work(pool));
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(expected(ics), merged(survivor));
+		int[] status = survivor.status();
+		assertEquals(3, status[0]);
+		assertEquals(0, status[1]);
+		assertEquals(0, status[2]);
+		assertEquals(3, status[3]);
+	}
+	
+	/**
+	 * A worker whose lease is reclaimed before it reads its chunk leaves it to the next claimant, and a chunk that comes back after it is done is dropped
+	 */
+	@Test
+	public void reclaimed () throws Exception {
+		List<JSONObject> ics = sweep(2);
+		File directory = folder.newFolder();
+		queue(directory).split(ics, 2);
+		WorkQueue slow = queue(directory), fast = queue(directory);
+		File lease = slow.claim();
+		lease.setLastModified(System.currentTimeMillis() - 1000L);
+		assertEquals(1, fast.reclaim());
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			slow.run(lease, pool);
+			assertEquals(0, slow.status()[3]);
+			fast.run(fast.claim(), pool);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(expected(ics), merged(fast));
+		File again = new File(new File(directory, "todo"), "0000000000.ndjson");
+		assertTrue(again.createNewFile());
+		assertEquals(null, slow.claim());
+		assertEquals(0, slow.status()[1] + slow.status()[2]);
+	}
+	
+	/**
+	 * A chunk with a malformed initial condition is set aside with its error, and the worker goes on to the rest
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void failedChunk () throws Exception {
+		List<JSONObject> ics = sweep(6);
+		ics.get(3).put("E", "high");
+		File directory = folder.newFolder();
+		queue(directory).split(ics, 2);
+		WorkQueue worker = queue(directory);
+		ForkJoinPool pool = new ForkJoinPool(1);
+		try {
+			assertEquals(3, worker.work(pool));
+		} finally {
+			pool.shutdown();
+		}
+		int[] status = worker.status();
+		assertEquals(0, status[1]);
+		assertEquals(0, status[2]);
+		assertEquals(2, status[3]);
+		assertEquals(1, status[4]);
+		assertTrue(new File(new File(directory, "failed"), "0000000002.ndjson").isFile());
+		List<String> failures = worker.failures();
+		assertEquals(1, failures.size());
+		assertTrue(failures.get(0), failures.get(0).startsWith("0000000002.ndjson: java.lang.ClassCastException"));
+		try {
+			merged(worker);
+			fail("merged a queue with a failed chunk");
+		} catch (IOException e) {
+			assertTrue(e.getMessage(), e.getMessage().startsWith("1 of 3 chunks failed\n  0000000002.ndjson: "));
+		}
+	}
+	
+	@Test(expected = IOException.class)
+	public void existing () throws IOException {
+		File directory = folder.newFolder();
+		queue(directory).split(sweep(1), 1);
+		queue(directory).split(sweep(1), 1);
+	}
+	
+	@Test
+	public void incomplete () throws IOException {
+		File directory = folder.newFolder();
+		queue(directory).split(sweep(3), 2);
+		try {
+			merged(queue(directory));
+			fail("merged an unfinished queue");
+		} catch (IOException e) {
+			assertEquals("2 of 2 chunks not done", e.getMessage());
+		}
+	}
+	
+	/**
+	 * Separate worker processes sharing the directory
+	 */
+	@Test
+	public void processes () throws Exception {
+		List<JSONObject> ics = sweep(8);
+		File directory = folder.newFolder();
+		queue(directory).split(ics, 1);
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<Process> workers = new ArrayList<Process>();
+		for (int i = 0; i < 3; i++) {
+			workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), WorkQueue.class.getName(), "work", directory.getPath(), "1")
+				.redirectErrorStream(true).redirectOutput(new File(directory, "worker" + i + ".log")).start());
+		}
+		for (Process worker : workers) {
+			assertEquals(0, worker.waitFor());
+		}
+		assertEquals(expected(ics), merged(queue(directory)));
+	}
+}